@@ -0,0 +1,531 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/* Implementation of a read-only extended kd-tree which keeps its nodes, coordinates and labels outside of the Java heap,
+in direct byte buffers. No labeled point objects are stored at all: points are materialized through a factory only
+when they are returned from a query, so the heap stays small no matter how many points the tree holds. */
+
+public class CompactXkdTree<LPoint extends LabeledPoint2D> implements AutoCloseable {
+
+	/* Each node is stored as a fixed-size record of NODE_BYTES bytes: the cutting dimension (or LEAF for an external
+	node), two integers, padding, and the cutting value. For an internal node the two integers are the indices of its
+	left and right children, and for an external node they are the range [first, end) of its points.
+
+	Each point is stored as a record of POINT_BYTES bytes: its X and Y coordinates, followed by the offset of its label
+	in the label buffer. A label is stored as its length in bytes followed by its UTF-8 encoding. */
+
+	static final int NODE_BYTES = 24;
+	static final int POINT_BYTES = 24;
+	static final int LEAF = -1;
+	static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	/* A tree saved to a file starts with a header of HEADER_BYTES bytes: a magic number, the format version, the size,
+	the bucket size, the index of the root node, the number of nodes, the total size of the labels in bytes, and the
+	bounding box of the points. It is followed by the points, the labels and the nodes, in that order. */
+
+	static final int FILE_MAGIC = 0x444B5843;
+	static final int FILE_VERSION = 1;
+	static final int HEADER_BYTES = 64;
+
+	/* While a tree is being built, nodes and points are written to a sink, in post-order for nodes, so that a node is
+	always written after both of its children. Each append returns the index of the node or point it wrote. */
+
+	interface Sink {
+		int appendNode(int cutDim, double cutVal, int a, int b) throws Exception;
+		int appendPoint(byte[] label, double x, double y) throws Exception;
+	}
+
+	/* Sink writing into a set of preallocated byte buffers. */
+	private static class BufferSink implements Sink {
+		ByteBuffer nodes, points, labels;
+		int nodeCount, pointCount;
+
+		BufferSink(ByteBuffer nodes, ByteBuffer points, ByteBuffer labels) {
+			this.nodes = nodes;
+			this.points = points;
+			this.labels = labels;
+			this.nodeCount = 0;
+			this.pointCount = 0;
+		}
+
+		public int appendNode(int cutDim, double cutVal, int a, int b) {
+			this.nodes.putInt(cutDim).putInt(a).putInt(b).putInt(0).putDouble(cutVal);
+			return this.nodeCount++;
+		}
+
+		public int appendPoint(byte[] label, double x, double y) {
+			this.points.putDouble(x).putDouble(y).putLong(this.labels.position());
+			this.labels.putInt(label.length).put(label);
+			return this.pointCount++;
+		}
+	}
+
+	/* A compact tree holds its three buffers, the index of its root node (or -1 if it is empty), its size and bucket
+	size, the bounding box of its points, and the factory used to materialize points. */
+
+	private ByteBuffer nodes, points, labels;
+	private int root;
+	private int size;
+	private int bucketSize;
+	private double lowX, lowY, highX, highY;
+	private LabeledPointFactory<LPoint> factory;
+
+	/* Construct a compact tree from the given list of points. The list is only read, and none of its points are
+	referenced by the tree once the constructor returns. The points are split in the same way as in XkdTree, by the
+	median along the wider dimension of their bounding box, until at most bucketSize points remain. */
+	public CompactXkdTree(ArrayList<LPoint> pts, int bucketSize, LabeledPointFactory<LPoint> factory) throws Exception {
+		if (bucketSize < 1) {
+			throw new Exception("Invalid bucket size");
+		}
+		int n = pts.size();
+		double[] xs = new double[n], ys = new double[n];
+		byte[][] lbls = new byte[n][];
+		int[] perm = new int[n];
+		long labelBytes = 0;
+		for (int i = 0; i < n; i++) {
+			LPoint point = pts.get(i);
+			xs[i] = point.getX();
+			ys[i] = point.getY();
+			lbls[i] = point.getLabel().getBytes(StandardCharsets.UTF_8);
+			perm[i] = i;
+			labelBytes += 4 + lbls[i].length;
+		}
+		BufferSink sink = new BufferSink(allocate((long) countNodes(n, bucketSize) * NODE_BYTES),
+				allocate((long) n * POINT_BYTES), allocate(labelBytes));
+		int root = -1;
+		if (n > 0) {
+			root = buildSubtree(xs, ys, lbls, perm, 0, n, bucketSize, sink);
+		}
+		double[] bounds = bounds(xs, ys, 0, n);
+		this.init(sink.nodes, sink.points, sink.labels, root, n, bucketSize, bounds, factory);
+	}
+
+	/* Construct a compact tree over buffers which already contain its nodes, points and labels, such as the sections
+	of a memory-mapped file. */
+	CompactXkdTree(ByteBuffer nodes, ByteBuffer points, ByteBuffer labels, int root, int size, int bucketSize,
+			double[] bounds, LabeledPointFactory<LPoint> factory) {
+		this.init(nodes, points, labels, root, size, bucketSize, bounds, factory);
+	}
+
+	/* Open a tree saved to a file by CompactXkdTreeBuilder. Nothing is read apart from the header: each section of
+	the file is mapped into memory, and its pages are loaded by the operating system as queries touch them. Since a
+	mapped buffer is indexed by int, each section must be smaller than 2GB. */
+	public static <LPoint extends LabeledPoint2D> CompactXkdTree<LPoint> open(String fileName,
+			LabeledPointFactory<LPoint> factory) throws Exception {
+		FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0) {
+					throw new Exception("Not a compact kd-tree file");
+				}
+			}
+			header.flip();
+			if (header.getInt() != FILE_MAGIC || header.getInt() != FILE_VERSION) {
+				throw new Exception("Not a compact kd-tree file");
+			}
+			int size = header.getInt(), bucketSize = header.getInt(), root = header.getInt(), nodeCount = header.getInt();
+			long labelBytes = header.getLong();
+			double[] bounds = new double[] { header.getDouble(), header.getDouble(), header.getDouble(),
+					header.getDouble() };
+			long labelsAt = HEADER_BYTES + (long) size * POINT_BYTES, nodesAt = labelsAt + labelBytes;
+			if (nodesAt + (long) nodeCount * NODE_BYTES != channel.size()) {
+				throw new Exception("Truncated compact kd-tree file");
+			}
+			ByteBuffer points = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, labelsAt - HEADER_BYTES);
+			ByteBuffer labels = channel.map(FileChannel.MapMode.READ_ONLY, labelsAt, labelBytes);
+			ByteBuffer nodes = channel.map(FileChannel.MapMode.READ_ONLY, nodesAt, (long) nodeCount * NODE_BYTES);
+			return new CompactXkdTree<LPoint>(nodes, points, labels, root, size, bucketSize, bounds, factory);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/* Private helper method which sets every field of the tree. */
+	private void init(ByteBuffer nodes, ByteBuffer points, ByteBuffer labels, int root, int size, int bucketSize,
+			double[] bounds, LabeledPointFactory<LPoint> factory) {
+		this.nodes = nodes.order(ORDER);
+		this.points = points.order(ORDER);
+		this.labels = labels.order(ORDER);
+		this.root = root;
+		this.size = size;
+		this.bucketSize = bucketSize;
+		this.lowX = bounds[0];
+		this.lowY = bounds[1];
+		this.highX = bounds[2];
+		this.highY = bounds[3];
+		this.factory = factory;
+	}
+
+	/* Private helper method which allocates a direct buffer of the given size, throwing an exception if the size does
+	not fit in a single buffer. */
+	private static ByteBuffer allocate(long bytes) throws Exception {
+		if (bytes > Integer.MAX_VALUE) {
+			throw new Exception("Point set too large for a single buffer");
+		}
+		return ByteBuffer.allocateDirect((int) bytes).order(ORDER);
+	}
+
+	/* Return the number of nodes a tree of n points will have. Since points are always split by index into halves of
+	sizes n / 2 and n - n / 2, this depends only on n and the bucket size. */
+	static int countNodes(int n, int bucketSize) {
+		if (n <= bucketSize) {
+			return 1;
+		}
+		return 1 + countNodes(n / 2, bucketSize) + countNodes(n - n / 2, bucketSize);
+	}
+
+	/* Return the bounding box of the points lo..hi as {lowX, lowY, highX, highY}. An empty range has an empty box at
+	the origin. */
+	static double[] bounds(double[] xs, double[] ys, int lo, int hi) {
+		if (lo >= hi) {
+			return new double[] { 0.0, 0.0, 0.0, 0.0 };
+		}
+		double[] res = new double[] { xs[lo], ys[lo], xs[lo], ys[lo] };
+		for (int i = lo + 1; i < hi; i++) {
+			res[0] = Math.min(res[0], xs[i]);
+			res[1] = Math.min(res[1], ys[i]);
+			res[2] = Math.max(res[2], xs[i]);
+			res[3] = Math.max(res[3], ys[i]);
+		}
+		return res;
+	}
+
+	/* Build the subtree for the points perm[lo..hi), whose labels are given in UTF-8, and write it to the sink,
+	returning the index of its root. If there are more points than the bucket size, they are split at the median along
+	the wider dimension of their bounding box, with the cutting value computed as in XkdTree; otherwise they form a
+	single external node. */
+	static int buildSubtree(double[] xs, double[] ys, byte[][] lbls, int[] perm, int lo, int hi, int bucketSize,
+			Sink sink) throws Exception {
+		if (hi - lo <= bucketSize) {
+			int first = -1;
+			for (int i = lo; i < hi; i++) {
+				int id = sink.appendPoint(lbls[perm[i]], xs[perm[i]], ys[perm[i]]);
+				if (first < 0) {
+					first = id;
+				}
+			}
+			if (first < 0) {
+				first = 0;
+			}
+			return sink.appendNode(LEAF, 0.0, first, first + (hi - lo));
+		}
+		double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (int i = lo; i < hi; i++) {
+			minX = Math.min(minX, xs[perm[i]]);
+			maxX = Math.max(maxX, xs[perm[i]]);
+			minY = Math.min(minY, ys[perm[i]]);
+			maxY = Math.max(maxY, ys[perm[i]]);
+		}
+		int cutDim = 0;
+		if (maxX - minX < maxY - minY) {
+			cutDim = 1;
+		}
+		double[] key = xs;
+		if (cutDim == 1) {
+			key = ys;
+		}
+		int m = lo + (hi - lo) / 2;
+		select(key, perm, lo, hi, m);
+		double cutVal = key[perm[m]];
+		if ((hi - lo) % 2 == 0) {
+			double maxLeft = -Double.MAX_VALUE;
+			for (int i = lo; i < m; i++) {
+				maxLeft = Math.max(maxLeft, key[perm[i]]);
+			}
+			cutVal = (maxLeft + cutVal) / 2;
+		}
+		int left = buildSubtree(xs, ys, lbls, perm, lo, m, bucketSize, sink);
+		int right = buildSubtree(xs, ys, lbls, perm, m, hi, bucketSize, sink);
+		return sink.appendNode(cutDim, cutVal, left, right);
+	}
+
+	/* Rearrange perm[lo..hi) so that perm[m] refers to the point which would be at index m if the range were sorted
+	by key, with no greater key before it and no smaller key after it. */
+	static void select(double[] key, int[] perm, int lo, int hi, int m) {
+		hi--;
+		while (lo < hi) {
+			double pivot = key[perm[lo + (hi - lo) / 2]];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (key[perm[i]] < pivot) {
+					i++;
+				}
+				while (key[perm[j]] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					int temp = perm[i];
+					perm[i] = perm[j];
+					perm[j] = temp;
+					i++;
+					j--;
+				}
+			}
+			if (m <= j) {
+				hi = j;
+			} else if (m >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	/* Return the number of points contained within the tree. */
+	public int size() {
+		return this.size;
+	}
+
+	/* Return the bucket size the tree was built with. */
+	public int getBucketSize() {
+		return this.bucketSize;
+	}
+
+	/* Drop the tree's references to its buffers. Any later query throws an exception. This does not free any memory
+	itself: Java offers no supported way to free a direct buffer or to unmap a mapped one, so the memory, and the mapping
+	of the file, are released only once the garbage collector reclaims the buffers. Points returned by queries are
+	materialized copies and do not keep the buffers reachable. */
+	public void close() {
+		this.nodes = null;
+		this.points = null;
+		this.labels = null;
+	}
+
+	/* Return whether the tree has been closed. */
+	public boolean isClosed() {
+		return this.nodes == null;
+	}
+
+	/* Materialize the point with the given index. */
+	public LPoint get(int id) {
+		this.checkOpen();
+		if (id < 0 || id >= this.size) {
+			throw new IndexOutOfBoundsException("Point index out of range");
+		}
+		return this.factory.create(this.label(id), this.x(id), this.y(id));
+	}
+
+	/* Return the provided point, if it is found in the tree, or null, if it is not. */
+	public LPoint find(Point2D q) {
+		this.checkOpen();
+		if (this.size == 0) {
+			return null;
+		}
+		int id = this.findHelper(this.root, q.getX(), q.getY());
+		if (id < 0) {
+			return null;
+		}
+		return this.get(id);
+	}
+
+	/* Returns the point closest to the given point, or null if the tree is empty. */
+	public LPoint nearestNeighbor(Point2D center) {
+		ArrayList<LPoint> res = this.kNearestNeighbor(center, 1);
+		if (res.size() == 0) {
+			return null;
+		}
+		return res.get(0);
+	}
+
+	/* Return a list of k points closest to the point center, materializing only the points in the result. */
+	public ArrayList<LPoint> kNearestNeighbor(Point2D center, int k) {
+		ArrayList<LPoint> res = new ArrayList<LPoint>();
+		for (int id : this.kNearestNeighborIds(center, k)) {
+			res.add(this.get(id));
+		}
+		return res;
+	}
+
+	/* Return the indices of the k points closest to the point center, sorted by distance. No points are
+	materialized. */
+	public int[] kNearestNeighborIds(Point2D center, int k) {
+		this.checkOpen();
+		if (this.size == 0 || k <= 0) {
+			return new int[0];
+		}
+		Nearest minK = new Nearest(k);
+		this.kNNHelper(this.root, center.getX(), center.getY(), this.lowX, this.lowY, this.highX, this.highY, minK);
+		return minK.list();
+	}
+
+	/* Private helper method which throws an exception if the tree has been closed. */
+	private void checkOpen() {
+		if (this.isClosed()) {
+			throw new IllegalStateException("Tree has been closed");
+		}
+	}
+
+	/* Private recursive helper method for find. As in XkdTree, a point whose coordinate equals the cutting value may
+	live in either subtree. */
+	private int findHelper(int u, double x, double y) {
+		int base = u * NODE_BYTES;
+		int cutDim = this.nodes.getInt(base);
+		if (cutDim == LEAF) {
+			for (int id = this.nodes.getInt(base + 4); id < this.nodes.getInt(base + 8); id++) {
+				if (this.x(id) == x && this.y(id) == y) {
+					return id;
+				}
+			}
+			return -1;
+		}
+		double v = x, cutVal = this.nodes.getDouble(base + 16);
+		if (cutDim == 1) {
+			v = y;
+		}
+		if (v < cutVal) {
+			return this.findHelper(this.nodes.getInt(base + 4), x, y);
+		} else if (v > cutVal) {
+			return this.findHelper(this.nodes.getInt(base + 8), x, y);
+		}
+		int res = this.findHelper(this.nodes.getInt(base + 4), x, y);
+		if (res < 0) {
+			res = this.findHelper(this.nodes.getInt(base + 8), x, y);
+		}
+		return res;
+	}
+
+	/* Private recursive helper method for the k nearest neighbors query. The cell of the current node is passed as
+	its four bounds, so that no rectangle objects are created during the search. */
+	private void kNNHelper(int u, double qx, double qy, double lox, double loy, double hix, double hiy,
+			Nearest minK) {
+		double dx = Math.max(0.0, Math.max(lox - qx, qx - hix)), dy = Math.max(0.0, Math.max(loy - qy, qy - hiy));
+		if (dx * dx + dy * dy > minK.getKth()) {
+			return;
+		}
+		int base = u * NODE_BYTES;
+		int cutDim = this.nodes.getInt(base), a = this.nodes.getInt(base + 4), b = this.nodes.getInt(base + 8);
+		if (cutDim == LEAF) {
+			for (int id = a; id < b; id++) {
+				double px = this.x(id) - qx, py = this.y(id) - qy;
+				minK.add(px * px + py * py, id);
+			}
+			return;
+		}
+		double cutVal = this.nodes.getDouble(base + 16);
+		if (cutDim == 0) {
+			if (qx < cutVal) {
+				this.kNNHelper(a, qx, qy, lox, loy, cutVal, hiy, minK);
+				this.kNNHelper(b, qx, qy, cutVal, loy, hix, hiy, minK);
+			} else {
+				this.kNNHelper(b, qx, qy, cutVal, loy, hix, hiy, minK);
+				this.kNNHelper(a, qx, qy, lox, loy, cutVal, hiy, minK);
+			}
+		} else {
+			if (qy < cutVal) {
+				this.kNNHelper(a, qx, qy, lox, loy, hix, cutVal, minK);
+				this.kNNHelper(b, qx, qy, lox, cutVal, hix, hiy, minK);
+			} else {
+				this.kNNHelper(b, qx, qy, lox, cutVal, hix, hiy, minK);
+				this.kNNHelper(a, qx, qy, lox, loy, hix, cutVal, minK);
+			}
+		}
+	}
+
+	/* Bounded max heap of the k smallest squared distances seen so far and the indices of their points, working like
+	MinK, but kept in parallel primitive arrays so that adding a point allocates nothing. */
+
+	private static class Nearest {
+		double[] keys;
+		int[] ids;
+		int size;
+
+		Nearest(int k) {
+			this.keys = new double[k];
+			this.ids = new int[k];
+			this.size = 0;
+		}
+
+		/* Return the kth smallest distance, or Double.MAX_VALUE if fewer than k points have been added or k is 0. */
+		double getKth() {
+			if (this.size == this.keys.length && this.size > 0) {
+				return this.keys[0];
+			}
+			return Double.MAX_VALUE;
+		}
+
+		/* Add a point if it is among the k nearest so far, by sifting it up from the end of the heap, or, once the
+		heap is full, down from the root, which it replaces. */
+		void add(double key, int id) {
+			int i;
+			if (this.size < this.keys.length) {
+				i = this.size++;
+				while (i > 0 && key > this.keys[(i - 1) / 2]) {
+					this.keys[i] = this.keys[(i - 1) / 2];
+					this.ids[i] = this.ids[(i - 1) / 2];
+					i = (i - 1) / 2;
+				}
+			} else if (this.size > 0 && key < this.keys[0]) {
+				i = 0;
+				while (2 * i + 1 < this.size) {
+					int u = 2 * i + 1;
+					if (u + 1 < this.size && this.keys[u + 1] > this.keys[u]) {
+						u++;
+					}
+					if (this.keys[u] <= key) {
+						break;
+					}
+					this.keys[i] = this.keys[u];
+					this.ids[i] = this.ids[u];
+					i = u;
+				}
+			} else {
+				return;
+			}
+			this.keys[i] = key;
+			this.ids[i] = id;
+		}
+
+		/* Return the indices of the points, sorted by distance. The heap positions are merge sorted by key, which
+		keeps points at equal distances in the same order as MinK.list. */
+		int[] list() {
+			int[] order = new int[this.size], temp = new int[this.size];
+			for (int i = 0; i < this.size; i++) {
+				order[i] = i;
+			}
+			for (int width = 1; width < this.size; width *= 2) {
+				for (int lo = 0; lo < this.size; lo += 2 * width) {
+					int mid = Math.min(lo + width, this.size), hi = Math.min(lo + 2 * width, this.size);
+					int i = lo, j = mid, t = lo;
+					while (i < mid || j < hi) {
+						if (j >= hi || (i < mid && this.keys[order[i]] <= this.keys[order[j]])) {
+							temp[t++] = order[i++];
+						} else {
+							temp[t++] = order[j++];
+						}
+					}
+				}
+				int[] swap = order;
+				order = temp;
+				temp = swap;
+			}
+			int[] res = new int[this.size];
+			for (int i = 0; i < this.size; i++) {
+				res[i] = this.ids[order[i]];
+			}
+			return res;
+		}
+	}
+
+	/* Private helper methods which read the coordinates and label of a point. */
+
+	private double x(int id) {
+		return this.points.getDouble(id * POINT_BYTES);
+	}
+
+	private double y(int id) {
+		return this.points.getDouble(id * POINT_BYTES + 8);
+	}
+
+	private String label(int id) {
+		int offset = (int) this.points.getLong(id * POINT_BYTES + 16);
+		byte[] bytes = new byte[this.labels.getInt(offset)];
+		this.labels.get(offset + 4, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,618 @@
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Random;
+
+/* Streaming builder which bulk loads a file of points into a file holding a CompactXkdTree, which can then be opened
+with CompactXkdTree.open. The input is never held in memory as a whole, so point files much larger than the heap can be
+loaded; at most maxPartitionPoints points are in memory at once, besides a sample of the coordinates of at least
+2^(MAX_LEVELS + 1) of them.
+
+The input is read twice, through a buffered file channel. The first pass counts the points, computes their bounding box,
+and keeps a uniform random sample of them. The top levels of the tree are chosen from the sample, splitting it at the
+lower median along the wider dimension of its bounding box, as XkdTree does, until every region is expected to hold at
+most maxPartitionPoints points. A region left without sample points is split at the middle of the wider side of its
+cell instead. The second pass routes every point down these top levels and spills it to a temporary file
+for its region. Each region's file is then read back and built in memory, or, if it still holds too many points,
+partitioned again in the same way. At most 2^MAX_LEVELS regions are spilled in one pass, so that the spill files, the
+input and the output stay within the usual limit on open files; a larger input simply takes more passes. Subtrees are written to the output in left-to-right order, and the top nodes after
+them, so the result has the same layout as a tree built in memory.
+
+Since the top splits come from a sample, they are close to, but not exactly at, the medians of the whole input. A point
+whose coordinate equals a cutting value of the top levels is sent to whichever side has received fewer such points so
+far, which is valid for a CompactXkdTree, since it searches both sides of a tie, and keeps heavily duplicated
+coordinates from piling up in a single region.
+
+Two input formats are read. A CSV file holds one point per line, as label,x,y, where the label may itself contain
+commas. A binary file holds a sequence of records, each made of the X and Y coordinates as little-endian doubles, and
+the label as its length in bytes, a little-endian int, followed by its UTF-8 encoding. Temporary files use the binary
+format too. */
+
+public class CompactXkdTreeBuilder {
+
+	private static final int BUFFER_BYTES = 1 << 16;
+	private static final int SPILL_BUFFER_BYTES = 1 << 15;
+	private static final int MAX_LEVELS = 8;
+	private static final int SECTION_LIMIT = Integer.MAX_VALUE;
+
+	/* The builder keeps the bucket size of the trees it builds, the number of points it may hold in memory at once,
+	the number of points sampled to choose the top splits, and the directory for temporary files (null for the
+	system's default). */
+
+	private int bucketSize;
+	private int maxPartitionPoints;
+	private int sampleSize;
+	private String tempDirectory;
+
+	/* Construct a builder for trees with the given bucket size, holding at most maxPartitionPoints points in memory at
+	once. */
+	public CompactXkdTreeBuilder(int bucketSize, int maxPartitionPoints) throws Exception {
+		if (bucketSize < 1 || maxPartitionPoints < bucketSize) {
+			throw new Exception("Invalid builder parameters");
+		}
+		this.bucketSize = bucketSize;
+		this.maxPartitionPoints = maxPartitionPoints;
+		this.sampleSize = Math.max(Math.min(maxPartitionPoints, 1 << 16), 2 << MAX_LEVELS);
+		this.tempDirectory = null;
+	}
+
+	/* Set the directory in which temporary files are created. */
+	public void setTempDirectory(String tempDirectory) {
+		this.tempDirectory = tempDirectory;
+	}
+
+	/* Build a tree from the points of a CSV file, and write it to the output file. */
+	public void buildFromCsv(String input, String output) throws Exception {
+		this.build(input, true, output);
+	}
+
+	/* Build a tree from the points of a binary file, and write it to the output file. */
+	public void buildFromBinary(String input, String output) throws Exception {
+		this.build(input, false, output);
+	}
+
+	/* Write the given points to a file in the binary input format. */
+	public static <LPoint extends LabeledPoint2D> void writeBinary(ArrayList<LPoint> pts, String fileName)
+			throws Exception {
+		PointWriter writer = new PointWriter(Paths.get(fileName), BUFFER_BYTES);
+		try {
+			for (LPoint point : pts) {
+				writer.write(point.getLabel().getBytes(StandardCharsets.UTF_8), point.getX(), point.getY());
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/* Private helper method which builds a tree from an input file. The sizes of the points and labels sections are
+	known after the first pass, so the output is written as header, points, labels and nodes, with each section filled
+	in through its own buffer as the subtrees are built, and the header written last. */
+	private void build(String input, boolean csv, String output) throws Exception {
+		Scan scan = this.scan(Paths.get(input), csv);
+		if (scan.count * CompactXkdTree.POINT_BYTES > SECTION_LIMIT || scan.labelBytes > SECTION_LIMIT) {
+			throw new Exception("Point set too large for a single section");
+		}
+		int n = (int) scan.count;
+		long labelsAt = CompactXkdTree.HEADER_BYTES + (long) n * CompactXkdTree.POINT_BYTES;
+		long nodesAt = labelsAt + scan.labelBytes;
+		FileChannel channel = FileChannel.open(Paths.get(output), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			FileSink sink = new FileSink(channel, CompactXkdTree.HEADER_BYTES, labelsAt, nodesAt);
+			int root = -1;
+			if (n > 0) {
+				root = this.buildPartition(Paths.get(input), csv, scan, sink);
+			}
+			sink.flush();
+			if ((long) sink.nodeCount * CompactXkdTree.NODE_BYTES > SECTION_LIMIT) {
+				throw new Exception("Point set too large for a single section");
+			}
+			ByteBuffer header = ByteBuffer.allocate(CompactXkdTree.HEADER_BYTES).order(CompactXkdTree.ORDER);
+			header.putInt(CompactXkdTree.FILE_MAGIC).putInt(CompactXkdTree.FILE_VERSION).putInt(n)
+					.putInt(this.bucketSize).putInt(root).putInt(sink.nodeCount).putLong(scan.labelBytes);
+			for (double bound : scan.bounds) {
+				header.putDouble(bound);
+			}
+			header.flip();
+			long pos = 0;
+			while (header.hasRemaining()) {
+				pos += channel.write(header, pos);
+			}
+			channel.force(false);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/* Private recursive helper method which builds the subtree for the points of a file, already scanned, writing it
+	to the sink and returning the index of its root. Only the points of files holding at most maxPartitionPoints points
+	are ever read into memory. */
+	private int buildPartition(Path file, boolean csv, Scan scan, FileSink sink) throws Exception {
+		int n = (int) scan.count;
+		if (n <= this.maxPartitionPoints) {
+			return this.buildInMemory(file, csv, n, sink);
+		}
+
+		/* Choose enough levels of top splits that every region is expected to fit in memory. */
+
+		long parts = (scan.count + this.maxPartitionPoints - 1) / this.maxPartitionPoints;
+		int levels = Math.min(MAX_LEVELS, 64 - Long.numberOfLeadingZeros(parts - 1));
+		int[] cutDims = new int[(1 << levels) - 1];
+		double[] cutVals = new double[(1 << levels) - 1];
+		int[] perm = new int[scan.sampleCount];
+		for (int i = 0; i < perm.length; i++) {
+			perm[i] = i;
+		}
+		this.chooseCuts(0, scan.sampleX, scan.sampleY, perm, 0, perm.length, scan.bounds, cutDims, cutVals);
+
+		/* Spill every point to the file of its region. */
+
+		int regions = 1 << levels;
+		Path[] files = new Path[regions];
+		PointWriter[] writers = new PointWriter[regions];
+		long[] counts = new long[regions];
+		long[] ties = new long[2 * cutDims.length];
+		try {
+			for (int i = 0; i < regions; i++) {
+				files[i] = this.tempFile();
+				writers[i] = new PointWriter(files[i], SPILL_BUFFER_BYTES);
+			}
+			PointReader reader = PointReader.open(file, csv);
+			try {
+				while (reader.next()) {
+					int i = 0;
+					while (i < cutDims.length) {
+						double v = reader.x;
+						if (cutDims[i] == 1) {
+							v = reader.y;
+						}
+						boolean left = v < cutVals[i];
+						if (v == cutVals[i]) {
+							left = ties[2 * i] <= ties[2 * i + 1];
+							if (left) {
+								ties[2 * i]++;
+							} else {
+								ties[2 * i + 1]++;
+							}
+						}
+						if (left) {
+							i = 2 * i + 1;
+						} else {
+							i = 2 * i + 2;
+						}
+					}
+					i -= cutDims.length;
+					writers[i].write(reader.label, reader.labelLength, reader.x, reader.y);
+					counts[i]++;
+				}
+			} finally {
+				reader.close();
+			}
+			for (int i = 0; i < regions; i++) {
+				writers[i].close();
+				writers[i] = null;
+			}
+
+			/* Build the regions from left to right, then the top nodes in post-order. A region still holding too many
+			points is partitioned again. The first cut is a sample point v of this very file which is not the largest
+			of at least two sample points along its dimension, or else ties with another sample point. The first point
+			equal to v goes left, and a larger point or a second point equal to v goes right, so both sides of the
+			first cut are nonempty and every region holds fewer points than the file, however few points were
+			sampled. A region which did not shrink means the file changed while it was being read. */
+
+			int[] roots = new int[regions];
+			for (int i = 0; i < regions; i++) {
+				if (counts[i] == scan.count) {
+					throw new Exception("Point set could not be partitioned");
+				}
+				if (counts[i] <= this.maxPartitionPoints) {
+					roots[i] = this.buildInMemory(files[i], false, (int) counts[i], sink);
+				} else {
+					roots[i] = this.buildPartition(files[i], false, this.scan(files[i], false), sink);
+				}
+				Files.delete(files[i]);
+				files[i] = null;
+			}
+			return this.appendCuts(0, cutDims, cutVals, roots, sink);
+		} finally {
+			for (int i = 0; i < regions; i++) {
+				if (writers[i] != null) {
+					writers[i].close();
+				}
+				if (files[i] != null) {
+					Files.deleteIfExists(files[i]);
+				}
+			}
+		}
+	}
+
+	/* Private helper method which reads the n points of a file into arrays and builds their subtree in memory, as
+	CompactXkdTree does. */
+	private int buildInMemory(Path file, boolean csv, int n, FileSink sink) throws Exception {
+		double[] xs = new double[n], ys = new double[n];
+		byte[][] lbls = new byte[n][];
+		int[] perm = new int[n];
+		PointReader reader = PointReader.open(file, csv);
+		try {
+			for (int i = 0; i < n; i++) {
+				if (!reader.next()) {
+					throw new Exception("Point file changed while building");
+				}
+				xs[i] = reader.x;
+				ys[i] = reader.y;
+				lbls[i] = new byte[reader.labelLength];
+				System.arraycopy(reader.label, 0, lbls[i], 0, reader.labelLength);
+				perm[i] = i;
+			}
+		} finally {
+			reader.close();
+		}
+		return CompactXkdTree.buildSubtree(xs, ys, lbls, perm, 0, n, this.bucketSize, sink);
+	}
+
+	/* Private recursive helper method which chooses cut i of the top levels, stored as an implicit complete binary
+	tree (cut i has children 2i + 1 and 2i + 2), from the sample points perm[lo..hi), whose cell is given as
+	{lowX, lowY, highX, highY}. The cut is at the lower median of the sample, which goes left with the points below it,
+	as the first point equal to a cutting value does when the points are routed. A region without sample points is cut
+	at the middle of the wider side of its cell; every point still lies within the cell computed for its node, so
+	queries remain correct whichever cut a region gets. */
+	private void chooseCuts(int i, double[] xs, double[] ys, int[] perm, int lo, int hi, double[] cell, int[] cutDims,
+			double[] cutVals) {
+		if (i >= cutDims.length) {
+			return;
+		}
+		int cutDim = 0;
+		double cutVal;
+		int m = lo;
+		if (hi > lo) {
+			double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+			for (int j = lo; j < hi; j++) {
+				minX = Math.min(minX, xs[perm[j]]);
+				maxX = Math.max(maxX, xs[perm[j]]);
+				minY = Math.min(minY, ys[perm[j]]);
+				maxY = Math.max(maxY, ys[perm[j]]);
+			}
+			if (maxX - minX < maxY - minY) {
+				cutDim = 1;
+			}
+			double[] key = xs;
+			if (cutDim == 1) {
+				key = ys;
+			}
+			m = lo + (hi - lo - 1) / 2;
+			CompactXkdTree.select(key, perm, lo, hi, m);
+			cutVal = key[perm[m]];
+			m++;
+		} else {
+			if (cell[2] - cell[0] < cell[3] - cell[1]) {
+				cutDim = 1;
+			}
+			cutVal = cell[cutDim] + (cell[cutDim + 2] - cell[cutDim]) / 2;
+		}
+		cutDims[i] = cutDim;
+		cutVals[i] = cutVal;
+		double[] left = cell.clone(), right = cell.clone();
+		left[cutDim + 2] = cutVal;
+		right[cutDim] = cutVal;
+		this.chooseCuts(2 * i + 1, xs, ys, perm, lo, m, left, cutDims, cutVals);
+		this.chooseCuts(2 * i + 2, xs, ys, perm, m, hi, right, cutDims, cutVals);
+	}
+
+	/* Private recursive helper method which writes the top nodes below cut i in post-order, given the roots of the
+	regions' subtrees, and returns the index of the node for cut i. */
+	private int appendCuts(int i, int[] cutDims, double[] cutVals, int[] roots, FileSink sink) throws Exception {
+		if (i >= cutDims.length) {
+			return roots[i - cutDims.length];
+		}
+		int left = this.appendCuts(2 * i + 1, cutDims, cutVals, roots, sink);
+		int right = this.appendCuts(2 * i + 2, cutDims, cutVals, roots, sink);
+		return sink.appendNode(cutDims[i], cutVals[i], left, right);
+	}
+
+	/* Private helper method which creates a temporary file. */
+	private Path tempFile() throws Exception {
+		if (this.tempDirectory == null) {
+			return Files.createTempFile("xkd", ".part");
+		}
+		return Files.createTempFile(Paths.get(this.tempDirectory), "xkd", ".part");
+	}
+
+	/* Result of the first pass over a file: the number of points, their bounding box as {lowX, lowY, highX, highY},
+	the size their labels will take in the output, and a uniform random sample of their coordinates. */
+
+	private static class Scan {
+		long count;
+		double[] bounds;
+		long labelBytes;
+		double[] sampleX, sampleY;
+		int sampleCount;
+	}
+
+	/* Private helper method which makes the first pass over a file, sampling its points by reservoir sampling. The
+	random generator is seeded, so that building the same file twice gives the same tree. */
+	private Scan scan(Path file, boolean csv) throws Exception {
+		Scan res = new Scan();
+		res.bounds = new double[] { 0.0, 0.0, 0.0, 0.0 };
+		res.sampleX = new double[this.sampleSize];
+		res.sampleY = new double[this.sampleSize];
+		Random random = new Random(420);
+		PointReader reader = PointReader.open(file, csv);
+		try {
+			while (reader.next()) {
+				if (res.count == 0) {
+					res.bounds = new double[] { reader.x, reader.y, reader.x, reader.y };
+				}
+				res.bounds[0] = Math.min(res.bounds[0], reader.x);
+				res.bounds[1] = Math.min(res.bounds[1], reader.y);
+				res.bounds[2] = Math.max(res.bounds[2], reader.x);
+				res.bounds[3] = Math.max(res.bounds[3], reader.y);
+				res.labelBytes += 4 + reader.labelLength;
+				long j = res.count;
+				if (j >= this.sampleSize) {
+					j = (long) (random.nextDouble() * (res.count + 1));
+				}
+				if (j < this.sampleSize) {
+					res.sampleX[(int) j] = reader.x;
+					res.sampleY[(int) j] = reader.y;
+				}
+				res.count++;
+			}
+		} finally {
+			reader.close();
+		}
+		res.sampleCount = (int) Math.min(res.count, this.sampleSize);
+		return res;
+	}
+
+	/* Sequential reader of the points of a CSV or binary file through a buffered file channel. After each call to next
+	which returns true, the fields hold the point read; the label array is reused from point to point, and only its
+	first labelLength bytes belong to the label. */
+
+	private static class PointReader {
+		FileChannel channel;
+		ByteBuffer buffer;
+		boolean csv;
+		long line;
+		double x, y;
+		byte[] label;
+		int labelLength;
+
+		static PointReader open(Path file, boolean csv) throws Exception {
+			PointReader res = new PointReader();
+			res.channel = FileChannel.open(file, StandardOpenOption.READ);
+			res.buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(CompactXkdTree.ORDER);
+			res.buffer.flip();
+			res.csv = csv;
+			res.line = 0;
+			res.label = new byte[64];
+			return res;
+		}
+
+		void close() throws Exception {
+			this.channel.close();
+		}
+
+		boolean next() throws Exception {
+			if (this.csv) {
+				return this.nextCsv();
+			}
+			if (!this.fill(1)) {
+				return false;
+			}
+			if (!this.fill(20)) {
+				throw new Exception("Truncated point file");
+			}
+			this.x = this.buffer.getDouble();
+			this.y = this.buffer.getDouble();
+			this.labelLength = this.buffer.getInt();
+			if (this.labelLength < 0) {
+				throw new Exception("Corrupt point file");
+			}
+			this.reserve(this.labelLength);
+			int i = 0;
+			while (i < this.labelLength) {
+				if (!this.fill(1)) {
+					throw new Exception("Truncated point file");
+				}
+				int n = Math.min(this.labelLength - i, this.buffer.remaining());
+				this.buffer.get(this.label, i, n);
+				i += n;
+			}
+			return true;
+		}
+
+		/* Read the next nonempty line, and split it at its last two commas. The line is read into the label array,
+		whose start then holds the label. */
+		private boolean nextCsv() throws Exception {
+			int length = 0;
+			while (length == 0) {
+				if (!this.fill(1)) {
+					return false;
+				}
+				this.line++;
+				while (this.fill(1)) {
+					byte b = this.buffer.get();
+					if (b == '\n') {
+						break;
+					}
+					this.reserve(length + 1);
+					this.label[length++] = b;
+				}
+				if (length > 0 && this.label[length - 1] == '\r') {
+					length--;
+				}
+			}
+			int c2 = length - 1;
+			while (c2 >= 0 && this.label[c2] != ',') {
+				c2--;
+			}
+			int c1 = c2 - 1;
+			while (c1 >= 0 && this.label[c1] != ',') {
+				c1--;
+			}
+			if (c1 < 0) {
+				throw new Exception("Malformed CSV line " + this.line);
+			}
+			try {
+				this.x = Double.parseDouble(new String(this.label, c1 + 1, c2 - c1 - 1, StandardCharsets.ISO_8859_1));
+				this.y = Double.parseDouble(new String(this.label, c2 + 1, length - c2 - 1, StandardCharsets.ISO_8859_1));
+			} catch (NumberFormatException e) {
+				throw new Exception("Malformed CSV line " + this.line);
+			}
+			this.labelLength = c1;
+			return true;
+		}
+
+		/* Make sure the label array can hold the given number of bytes. */
+		private void reserve(int bytes) {
+			if (bytes > this.label.length) {
+				byte[] label = new byte[Math.max(bytes, 2 * this.label.length)];
+				System.arraycopy(this.label, 0, label, 0, this.label.length);
+				this.label = label;
+			}
+		}
+
+		/* Make sure the buffer holds at least the given number of bytes, refilling it from the channel if needed, and
+		return false if the file ends first. */
+		private boolean fill(int bytes) throws Exception {
+			if (this.buffer.remaining() >= bytes) {
+				return true;
+			}
+			this.buffer.compact();
+			while (this.buffer.position() < bytes) {
+				if (this.channel.read(this.buffer) < 0) {
+					this.buffer.flip();
+					return false;
+				}
+			}
+			this.buffer.flip();
+			return true;
+		}
+	}
+
+	/* Sequential writer of points in the binary format through a buffered file channel. */
+
+	private static class PointWriter {
+		FileChannel channel;
+		ByteBuffer buffer;
+
+		PointWriter(Path file, int bufferBytes) throws Exception {
+			this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			this.buffer = ByteBuffer.allocateDirect(bufferBytes).order(CompactXkdTree.ORDER);
+		}
+
+		void write(byte[] label, double x, double y) throws Exception {
+			this.write(label, label.length, x, y);
+		}
+
+		void write(byte[] label, int labelLength, double x, double y) throws Exception {
+			if (this.buffer.remaining() < 20) {
+				this.flush();
+			}
+			this.buffer.putDouble(x).putDouble(y).putInt(labelLength);
+			int i = 0;
+			while (i < labelLength) {
+				if (!this.buffer.hasRemaining()) {
+					this.flush();
+				}
+				int n = Math.min(labelLength - i, this.buffer.remaining());
+				this.buffer.put(label, i, n);
+				i += n;
+			}
+		}
+
+		void flush() throws Exception {
+			this.buffer.flip();
+			while (this.buffer.hasRemaining()) {
+				this.channel.write(this.buffer);
+			}
+			this.buffer.clear();
+		}
+
+		void close() throws Exception {
+			if (this.channel.isOpen()) {
+				this.flush();
+				this.channel.close();
+			}
+		}
+	}
+
+	/* Sink writing a tree into the sections of the output file. Each section has its own buffer, written out at the
+	section's current position whenever it fills up. */
+
+	private static class FileSink implements CompactXkdTree.Sink {
+		Section nodes, points, labels;
+		long labelOffset;
+		int nodeCount, pointCount;
+
+		FileSink(FileChannel channel, long pointsAt, long labelsAt, long nodesAt) {
+			this.points = new Section(channel, pointsAt);
+			this.labels = new Section(channel, labelsAt);
+			this.nodes = new Section(channel, nodesAt);
+			this.labelOffset = 0;
+			this.nodeCount = 0;
+			this.pointCount = 0;
+		}
+
+		public int appendNode(int cutDim, double cutVal, int a, int b) throws Exception {
+			this.nodes.reserve(CompactXkdTree.NODE_BYTES);
+			this.nodes.buffer.putInt(cutDim).putInt(a).putInt(b).putInt(0).putDouble(cutVal);
+			return this.nodeCount++;
+		}
+
+		public int appendPoint(byte[] label, double x, double y) throws Exception {
+			this.points.reserve(CompactXkdTree.POINT_BYTES);
+			this.points.buffer.putDouble(x).putDouble(y).putLong(this.labelOffset);
+			this.labels.reserve(4);
+			this.labels.buffer.putInt(label.length);
+			int i = 0;
+			while (i < label.length) {
+				this.labels.reserve(1);
+				int n = Math.min(label.length - i, this.labels.buffer.remaining());
+				this.labels.buffer.put(label, i, n);
+				i += n;
+			}
+			this.labelOffset += 4 + label.length;
+			return this.pointCount++;
+		}
+
+		void flush() throws Exception {
+			this.points.flush();
+			this.labels.flush();
+			this.nodes.flush();
+		}
+	}
+
+	/* Buffered writer for one section of the output file. */
+	private static class Section {
+		FileChannel channel;
+		long position;
+		ByteBuffer buffer;
+
+		Section(FileChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
+			this.buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(CompactXkdTree.ORDER);
+		}
+
+		void reserve(int bytes) throws Exception {
+			if (this.buffer.remaining() < bytes) {
+				this.flush();
+			}
+		}
+
+		void flush() throws Exception {
+			this.buffer.flip();
+			while (this.buffer.hasRemaining()) {
+				this.position += this.channel.write(this.buffer, this.position);
+			}
+			this.buffer.clear();
+		}
+	}
+}
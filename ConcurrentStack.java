@@ -0,0 +1,95 @@
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/* Lock-free stack which any number of threads may push to and pop from concurrently, implemented as a Treiber stack:
+a linked list whose top is swapped in with a single compare-and-set. */
+
+public class ConcurrentStack<T> {
+
+	/* A node holds an element and a reference to the node below it. Nodes are never modified or reused once pushed,
+	so a compare-and-set on the top can never succeed against a node that was popped and pushed again (the ABA
+	problem): a new push always allocates a new node. */
+
+	private static class Node<T> {
+		final T item;
+		final Node<T> below;
+
+		Node(T item, Node<T> below) {
+			this.item = item;
+			this.below = below;
+		}
+	}
+
+	/* The stack holds a reference to its top node, and a count of its elements. */
+
+	private final AtomicReference<Node<T>> top;
+	private final AtomicInteger size;
+
+	/* Construct a new, empty stack. */
+	public ConcurrentStack() {
+		this.top = new AtomicReference<Node<T>>(null);
+		this.size = new AtomicInteger(0);
+	}
+
+	/* Push a new element onto the top of the stack, retrying until no other thread changes the top in between. */
+	public void push(T x) {
+		Node<T> t, node;
+		do {
+			t = this.top.get();
+			node = new Node<T>(x, t);
+		} while (!this.top.compareAndSet(t, node));
+		this.size.incrementAndGet();
+	}
+
+	/* Pop the topmost element off the stack. */
+	public T pop() throws Exception {
+		Node<T> t = this.popNode();
+		if (t == null) {
+			throw new Exception("Pop of empty stack");
+		}
+		return t.item;
+	}
+
+	/* Pop the topmost element off the stack, or return null if it is empty. Since other threads may push or pop at
+	any time, this is the only reliable way for a worker to tell that it has run out of work. */
+	public T tryPop() {
+		Node<T> t = this.popNode();
+		if (t == null) {
+			return null;
+		}
+		return t.item;
+	}
+
+	/* Private helper method which unlinks the top node, or returns null if the stack is empty. */
+	private Node<T> popNode() {
+		Node<T> t;
+		do {
+			t = this.top.get();
+			if (t == null) {
+				return null;
+			}
+		} while (!this.top.compareAndSet(t, t.below));
+		this.size.decrementAndGet();
+		return t;
+	}
+
+	/* A stack is empty if its top is null. */
+	public boolean isEmpty() {
+		return this.top.get() == null;
+	}
+
+	/* Return the size of the stack. While other threads are pushing or popping, this is only an estimate. */
+	public int size() {
+		return Math.max(0, this.size.get());
+	}
+
+	/* Return a list containing all the elements inside the stack, from the top down, as of a single moment. */
+	public ArrayList<T> list() {
+		ArrayList<T> res = new ArrayList<T>();
+		for (Node<T> node = this.top.get(); node != null; node = node.below) {
+			res.add(node.item);
+		}
+		return res;
+	}
+}
@@ -0,0 +1,174 @@
+import java.util.ArrayList;
+
+/* Stack of primitive doubles, implemented using linked arrays ("chunks") in the same way as ExpandingStack, but without
+boxing its elements. */
+
+public class DoubleExpandingStack {
+
+	/* A chunk is an array of elements, linked to the chunks below and above it in the stack. */
+
+	private static class Chunk {
+		double[] items;
+		Chunk below, above;
+
+		Chunk(int size, Chunk below) {
+			this.items = new double[size];
+			this.below = below;
+			this.above = null;
+		}
+	}
+
+	/* The stack keeps a reference to the chunk holding its top element, the index of the top element in that chunk
+	(-1 if the chunk is empty), the number of elements, the total capacity of its chunks, and whether it should shrink
+	when elements are popped. */
+
+	private Chunk chunk;
+	private int top;
+	private int size;
+	private int capacity;
+	private boolean shrink;
+
+	/* Construct new stack by creating a single empty chunk of given size. */
+	public DoubleExpandingStack(int initialCapacity) throws Exception {
+		this(initialCapacity, false);
+	}
+
+	/* Construct new stack by creating a single empty chunk of given size. If shrink is true, chunks emptied by pops
+	are released, apart from one spare chunk above the top. */
+	public DoubleExpandingStack(int initialCapacity, boolean shrink) throws Exception {
+		if (initialCapacity < 1) {
+			throw new Exception("Invalid capacity");
+		}
+		this.chunk = new Chunk(initialCapacity, null);
+		this.top = -1;
+		this.size = 0;
+		this.capacity = initialCapacity;
+		this.shrink = shrink;
+	}
+
+	/* Push a new element onto the top of the stack, linking a new chunk if the top chunk is full. */
+	public void push(double x) {
+		if (this.top == this.chunk.items.length - 1) {
+			this.nextChunk();
+		}
+		this.top++;
+		this.chunk.items[this.top] = x;
+		this.size++;
+	}
+
+	/* Push every element of the given array onto the stack, in order, so that the last element ends up on top. */
+	public void pushAll(double[] xs) {
+		int i = 0;
+		while (i < xs.length) {
+			if (this.top == this.chunk.items.length - 1) {
+				this.nextChunk();
+			}
+			int n = Math.min(xs.length - i, this.chunk.items.length - 1 - this.top);
+			System.arraycopy(xs, i, this.chunk.items, this.top + 1, n);
+			this.top += n;
+			this.size += n;
+			i += n;
+		}
+	}
+
+	/* Pop the topmost element off the stack. */
+	public double pop() throws Exception {
+		if (this.size == 0) {
+			throw new Exception("Pop of empty stack");
+		}
+		double x = this.chunk.items[this.top];
+		this.top--;
+		this.size--;
+		if (this.top < 0) {
+			this.prevChunk();
+		}
+		return x;
+	}
+
+	/* Pop the n topmost elements off the stack into the first n positions of the given array, in the order they were
+	pushed. */
+	public void popN(int n, double[] dest) throws Exception {
+		if (n < 0 || n > this.size || n > dest.length) {
+			throw new Exception("Pop count out of range");
+		}
+		int end = n;
+		while (end > 0) {
+			int m = Math.min(end, this.top + 1);
+			System.arraycopy(this.chunk.items, this.top + 1 - m, dest, end - m, m);
+			this.top -= m;
+			this.size -= m;
+			end -= m;
+			if (this.top < 0) {
+				this.prevChunk();
+			}
+		}
+	}
+
+	/* Examine the element at a given index in the stack. */
+	public double peek(int idx) throws Exception {
+		if (idx < 0 || idx >= this.size) {
+			throw new Exception("Peek index out of range");
+		}
+		Chunk c = this.chunk;
+		int pos = this.top;
+		while (idx > pos) {
+			idx -= pos + 1;
+			c = c.below;
+			pos = c.items.length - 1;
+		}
+		return c.items[pos - idx];
+	}
+
+	/* Return the size of the stack. */
+	public int size() {
+		return this.size;
+	}
+
+	/* Return how many elements the stack can store without allocating. */
+	public int capacity() {
+		return this.capacity;
+	}
+
+	/* Return a list containing all the elements inside the stack. */
+	public ArrayList<Double> list() {
+		ArrayList<Double> res = new ArrayList<Double>();
+		Chunk c = this.chunk;
+		int idx = this.top;
+		while (c != null) {
+			while (idx > -1) {
+				res.add(c.items[idx]);
+				idx--;
+			}
+			c = c.below;
+			if (c != null) {
+				idx = c.items.length - 1;
+			}
+		}
+		return res;
+	}
+
+	/* Private helper method which makes the chunk above the current one the top chunk, linking a new one if there is
+	none. */
+	private void nextChunk() {
+		if (this.chunk.above == null) {
+			this.chunk.above = new Chunk(this.capacity, this.chunk);
+			this.capacity *= 2;
+		}
+		this.chunk = this.chunk.above;
+		this.top = -1;
+	}
+
+	/* Private helper method called when the top chunk has been emptied, which makes the chunk below it the top chunk,
+	if there is one, releasing any chunk above the emptied one when shrinking. */
+	private void prevChunk() {
+		if (this.chunk.below == null) {
+			return;
+		}
+		if (this.shrink && this.chunk.above != null) {
+			this.capacity -= this.chunk.above.items.length;
+			this.chunk.above = null;
+		}
+		this.chunk = this.chunk.below;
+		this.top = this.chunk.items.length - 1;
+	}
+}
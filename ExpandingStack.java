@@ -1,73 +1,190 @@
 import java.util.ArrayList;
 
-/* Simple stack implemented using an array in Java. */
+/* Simple stack implemented using linked arrays ("chunks") in Java. */
 
-public class ExpandingStack {
-	private String[] stack;
+public class ExpandingStack<T> {
+
+	/* A chunk is an array of elements, linked to the chunks below and above it in the stack. Chunks are never copied:
+	when the topmost chunk is full, a new one is linked on top of it. */
+
+	private static class Chunk {
+		Object[] items;
+		Chunk below, above;
+
+		Chunk(int size, Chunk below) {
+			this.items = new Object[size];
+			this.below = below;
+			this.above = null;
+		}
+	}
+
+	/* The stack keeps a reference to the chunk holding its top element, the index of the top element in that chunk
+	(-1 if the chunk is empty), the number of elements, the total capacity of its chunks, and whether it should shrink
+	when elements are popped. */
+
+	private Chunk chunk;
 	private int top;
+	private int size;
+	private int capacity;
+	private boolean shrink;
 
-	/* Construct new stack by creating an empty array of given size, and setting the "top" variable to -1. "top" is
-	used to determine whether we can continue pushing elements onto the stack, or if the stack is full and we need to
-	resize. */
+	/* Construct new stack by creating a single empty chunk of given size. The stack keeps every chunk it allocates,
+	so that pushing again after popping never allocates. */
 	public ExpandingStack(int initialCapacity) throws Exception {
+		this(initialCapacity, false);
+	}
+
+	/* Construct new stack by creating a single empty chunk of given size. If shrink is true, chunks emptied by pops
+	are released, apart from one spare chunk above the top, so that a push right after a pop never allocates. */
+	public ExpandingStack(int initialCapacity, boolean shrink) throws Exception {
 		if (initialCapacity < 1) {
 			throw new Exception("Invalid capacity");
 		}
-		this.stack = new String[initialCapacity];
+		this.chunk = new Chunk(initialCapacity, null);
 		this.top = -1;
+		this.size = 0;
+		this.capacity = initialCapacity;
+		this.shrink = shrink;
 	}
 	
-	/* Push a new element onto the top of the stack. If the stack overflows, we resize by allocating a new array with
-	twice as much space as our current one and copying existing elements over. Amortized analysis shows this runs in
-	O(n). */
-	public void push(String x) {
-		if (this.top == this.stack.length - 1) {
-			int newSize = this.stack.length * 2;
-			String[] newStack = new String[newSize];
-			for (int i = 0; i < this.stack.length; i++) {
-				newStack[i] = this.stack[i];
-			}
-			this.stack = newStack;
+	/* Push a new element onto the top of the stack. If the top chunk is full, we move on to the chunk above it, or
+	link a new chunk as large as the current capacity, doubling it as the array-based stack did, but without copying
+	any existing elements. */
+	public void push(T x) {
+		if (this.top == this.chunk.items.length - 1) {
+			this.nextChunk();
 		}
 		this.top++;
-		this.stack[this.top] = x;
+		this.chunk.items[this.top] = x;
+		this.size++;
+	}
+
+	/* Push every element of the given array onto the stack, in order, so that the last element ends up on top. */
+	public void pushAll(T[] xs) {
+		int i = 0;
+		while (i < xs.length) {
+			if (this.top == this.chunk.items.length - 1) {
+				this.nextChunk();
+			}
+			int n = Math.min(xs.length - i, this.chunk.items.length - 1 - this.top);
+			System.arraycopy(xs, i, this.chunk.items, this.top + 1, n);
+			this.top += n;
+			this.size += n;
+			i += n;
+		}
 	}
 	
 	/* Pop the topmost element off the stack. */
-	public String pop() throws Exception {
-		if (this.top < 0) {
+	public T pop() throws Exception {
+		if (this.size == 0) {
 			throw new Exception("Pop of empty stack");
 		}
-		top--;
-		return this.stack[top + 1];
+		T x = this.item(this.chunk, this.top);
+		this.chunk.items[this.top] = null;
+		this.top--;
+		this.size--;
+		if (this.top < 0) {
+			this.prevChunk();
+		}
+		return x;
+	}
+
+	/* Pop the n topmost elements off the stack into the first n positions of the given array. They are copied in the
+	order they were pushed, so that the former top of the stack ends up at index n - 1, and pushAll on the result
+	restores the stack. */
+	public void popN(int n, T[] dest) throws Exception {
+		if (n < 0 || n > this.size || n > dest.length) {
+			throw new Exception("Pop count out of range");
+		}
+		int end = n;
+		while (end > 0) {
+			int m = Math.min(end, this.top + 1);
+			System.arraycopy(this.chunk.items, this.top + 1 - m, dest, end - m, m);
+			for (int i = this.top + 1 - m; i <= this.top; i++) {
+				this.chunk.items[i] = null;
+			}
+			this.top -= m;
+			this.size -= m;
+			end -= m;
+			if (this.top < 0) {
+				this.prevChunk();
+			}
+		}
 	}
 	
 	/* Examine the element at a given index in the stack. */
-	public String peek(int idx) throws Exception {
-		if (idx < 0 || idx > this.top) {
+	public T peek(int idx) throws Exception {
+		if (idx < 0 || idx >= this.size) {
 			throw new Exception("Peek index out of range");
 		}
-		return this.stack[top - idx];
+		Chunk c = this.chunk;
+		int pos = this.top;
+		while (idx > pos) {
+			idx -= pos + 1;
+			c = c.below;
+			pos = c.items.length - 1;
+		}
+		return this.item(c, pos - idx);
 	}
 	
 	/* Return the size of the stack. */
 	public int size() {
-		return this.top + 1;
+		return this.size;
 	}
 	
-	/* Return how many elements the stack can store. */
+	/* Return how many elements the stack can store without allocating. */
 	public int capacity() {
-		return this.stack.length;
+		return this.capacity;
 	}
 	
 	/* Return a list containing all the elements inside the stack. */
-	public ArrayList<String> list() {
-		ArrayList<String> res = new ArrayList<String>();
+	public ArrayList<T> list() {
+		ArrayList<T> res = new ArrayList<T>();
+		Chunk c = this.chunk;
 		int idx = this.top;
-		while (idx > -1) {
-			res.add(this.stack[idx]);
-			idx--;
+		while (c != null) {
+			while (idx > -1) {
+				res.add(this.item(c, idx));
+				idx--;
+			}
+			c = c.below;
+			if (c != null) {
+				idx = c.items.length - 1;
+			}
 		}
 		return res;
 	}
+
+	/* Private helper method which makes the chunk above the current one the top chunk, linking a new one if there is
+	none. */
+	private void nextChunk() {
+		if (this.chunk.above == null) {
+			this.chunk.above = new Chunk(this.capacity, this.chunk);
+			this.capacity *= 2;
+		}
+		this.chunk = this.chunk.above;
+		this.top = -1;
+	}
+
+	/* Private helper method called when the top chunk has been emptied, which makes the chunk below it the top chunk,
+	if there is one. When shrinking, the chunk that was emptied is kept as a spare, but any chunk above it is
+	released. */
+	private void prevChunk() {
+		if (this.chunk.below == null) {
+			return;
+		}
+		if (this.shrink && this.chunk.above != null) {
+			this.capacity -= this.chunk.above.items.length;
+			this.chunk.above = null;
+		}
+		this.chunk = this.chunk.below;
+		this.top = this.chunk.items.length - 1;
+	}
+
+	/* Private helper method which reads an element of a chunk. Chunks are arrays of Object, since generic arrays
+	cannot be created, but only elements of type T are ever stored in them. */
+	@SuppressWarnings("unchecked")
+	private T item(Chunk c, int idx) {
+		return (T) c.items[idx];
+	}
 }
\ No newline at end of file
@@ -1,4 +1,6 @@
 import java.util.ArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 /* Implementation of the k-capacitated facility locator, which, given a set of data points (referred to as "service
 centers") and an integer k, locates service centers such that they can serve at most k customers and are located as
@@ -7,25 +9,75 @@ optimally as possible. */
 public class KCapFL<LPoint extends LabeledPoint2D> {
 
 	/* KCapFL contains an integer representing the number of points that can be within a certain radius, an extended
-	kd-tree to store points, and a leftist heap to store key-value pairs representing the distances of pairs to a
-	point. */
+	kd-tree to store points, and a meldable heap (a leftist heap, unless another kind is chosen) to store key-value pairs
+	representing the distances of pairs to a point. */
 
 	private int capacity;
 	private XkdTree<LPoint> kdTree;
-	private LeftistHeap<Double, ArrayList<LPoint>> heap;
+	private MeldableHeap<Double, ArrayList<LPoint>> heap;
+	
+	/* KCapFL also keeps track of the number of entries in its heap, and, for the metrics listener, if there is one,
+	the number of stale candidates popped and reinserted by the extraction currently running. */
+
+	private int heapSize;
+	private MetricsListener listener;
+	private int stalePops, reinserted;
+
+	/* Once a checkpoint has been taken, KCapFL keeps the checkpoint file, whose journal records every change to the
+	extended kd-tree and the heap, and every cluster returned. Every cluster returned since the points were built is
+	also appended to a log in a temporary file, so that the first checkpoint to a file can record them all. Clusters
+	are not kept in memory. */
+
+	private KCapFLCheckpoint<LPoint> checkpoint;
+	private KCapFLCheckpoint.ClusterLog clusters;
 
 	/* Constructor for KCapFL sets the capacity to the provided value, creates an extended kd-tree with the given
 	bucket size and bounding box, and a new empty leftist heap. */
 	public KCapFL(int capacity, int bucketSize, Rectangle2D bbox) {
+		this(capacity, bucketSize, bbox, new Supplier<MeldableHeap<Double, ArrayList<LPoint>>>() {
+			public MeldableHeap<Double, ArrayList<LPoint>> get() {
+				return new LeftistHeap<Double, ArrayList<LPoint>>();
+			}
+		});
+	}
+
+	/* Constructor for KCapFL which uses a new empty heap from the given factory instead of a leftist heap. KCapFL only
+	ever inserts keys at least as large as the last one extracted, so a monotone heap such as RadixHeap may be used. */
+	public KCapFL(int capacity, int bucketSize, Rectangle2D bbox,
+			Supplier<MeldableHeap<Double, ArrayList<LPoint>>> heaps) {
 		this.capacity = capacity;
 		this.kdTree = new XkdTree<LPoint>(bucketSize, bbox);
-		this.heap = new LeftistHeap<Double, ArrayList<LPoint>>();
+		this.heap = heaps.get();
+		this.heapSize = 0;
+		this.listener = null;
+		this.checkpoint = null;
+		this.clusters = null;
+	}
+	
+	/* Set the listener which receives metrics about cluster extraction, or null to stop reporting metrics. The listener
+	is also set on the extended kd-tree, so it receives metrics about every k nearest neighbors query as well. */
+	public void setListener(MetricsListener listener) {
+		this.listener = listener;
+		this.kdTree.setListener(listener);
 	}
 
-	/* Clears the contents of KCapFL by invoking clear() on its extended kd-tree and leftist heap. */
+	/* Clears the contents of KCapFL by invoking clear() on its extended kd-tree and leftist heap, and deletes its log
+	of returned clusters. */
 	public void clear() {
 		this.kdTree.clear();
 		this.heap.clear();
+		this.heapSize = 0;
+		this.checkpoint = null;
+		if (this.clusters != null) {
+			try {
+				this.clusters.delete();
+			} catch (Exception e) {
+
+				/* The log is a temporary file, which is deleted on exit anyway. */
+
+			}
+			this.clusters = null;
+		}
 	}
 
 	/* Stores a given list of points in KCapFL by inserting them into the extended kd-tree and calculating the k
@@ -34,46 +86,104 @@ public class KCapFL<LPoint extends LabeledPoint2D> {
 		if (pts.size() <= 0 || pts.size() % this.capacity != 0) {
 			throw new Exception("Invalid point set size");
 		}
+		if (this.clusters == null) {
+			this.clusters = new KCapFLCheckpoint.ClusterLog();
+		}
 		this.kdTree.bulkInsert(pts);
 		for (LPoint point : pts) {
-			ArrayList<LPoint> kNearestNeighbor = this.kdTree.kNearestNeighbor(point.getPoint2D(), this.capacity);
+			ArrayList<LPoint> kNearestNeighbor = this.centerFirst(point,
+					this.kdTree.kNearestNeighbor(point.getPoint2D(), this.capacity));
 			this.heap.insert(point.getPoint2D().distanceSq(kNearestNeighbor.get(capacity - 1).getPoint2D()), kNearestNeighbor);
+			this.heapSize++;
 		}
 	}
 
+	/* Private helper method which makes the given point the first of its k nearest neighbors, since extraction takes
+	the first point of a candidate as its center. Other copies of the point are also at distance 0, so the point may
+	come later in the list, or, if there are more than k copies, not at all, in which case it replaces the last one.
+	Either way, the kth distance does not change. */
+	private ArrayList<LPoint> centerFirst(LPoint point, ArrayList<LPoint> kNearestNeighbor) {
+		if (kNearestNeighbor.get(0) == point) {
+			return kNearestNeighbor;
+		}
+		int i = kNearestNeighbor.size() - 1;
+		while (i > 0 && kNearestNeighbor.get(i) != point) {
+			i--;
+		}
+		kNearestNeighbor.remove(i == 0 ? kNearestNeighbor.size() - 1 : i);
+		kNearestNeighbor.add(0, point);
+		return kNearestNeighbor;
+	}
+
 	/* Returns a list representing a "cluster" of labeled points. */
 	public ArrayList<LPoint> extractCluster() {
+		this.stalePops = 0;
+		this.reinserted = 0;
+		ArrayList<LPoint> res = this.extractClusterHelper();
+		if (this.listener != null && res != null) {
+			this.listener.extractCluster(this.stalePops, this.reinserted, this.heapSize);
+		}
+		return res;
+	}
+
+	/* Private recursive helper method for extractCluster, which pops candidates off the heap until it finds one that
+	is not stale. */
+	private ArrayList<LPoint> extractClusterHelper() {
 		if (this.kdTree.size() == 0) {
 			return null;
 		}
 		try {
 			ArrayList<LPoint> labeledPoints = new ArrayList<LPoint>(this.heap.extractMin());
-			boolean success = true;
+			this.heapSize--;
+			if (this.checkpoint != null) {
+				this.checkpoint.recordPop();
+			}
+
+			/* Points are looked up and deleted by identity, since the tree may hold other points with the same
+			coordinates. */
+
+			ArrayList<LPoint> survivors = new ArrayList<LPoint>();
 			for (LPoint point : labeledPoints) {
-				if (this.kdTree.find(point.getPoint2D()) == null) {
-					success = false;
-					break;
+				if (this.kdTree.contains(point)) {
+					survivors.add(point);
 				}
 			}
+			boolean success = survivors.size() == labeledPoints.size();
 
 			/* If the extended kd-tree contains the minimum key in the leftist heap, we simply return it. */
 
 			if (success) {
 				for (LPoint point : labeledPoints) {
-					this.kdTree.delete(point.getPoint2D());
+					this.kdTree.remove(point);
+				}
+				if (this.clusters != null) {
+					this.clusters.append(labeledPoints);
+				}
+				if (this.checkpoint != null) {
+					this.checkpoint.recordCluster(labeledPoints);
 				}
 				return labeledPoints;
 				
 			/* If the extended kd-tree does not contain every element in the list from above, but does contain the
 			minimum element, create a new list of labeled points, radius, and corresponding leftist heap, and continue
-			extracting clusters. */
+			extracting clusters. Points are only ever deleted from the tree, so the points of the old list which are
+			still in the tree are still the nearest ones, and only replacements for the deleted ones need to be searched
+			for, beyond the old radius. */
 
 			} else {
+				this.stalePops++;
 				LPoint c = labeledPoints.get(0);
-				if (this.kdTree.find(c.getPoint2D()) != null) {
-					ArrayList<LPoint> newLabeledPoints = this.kdTree.kNearestNeighbor(c.getPoint2D(), this.capacity);
+				if (survivors.size() > 0 && survivors.get(0) == c) {
+					double oldRadius = c.getPoint2D().distanceSq(labeledPoints.get(this.capacity - 1).getPoint2D());
+					ArrayList<LPoint> newLabeledPoints = this.kdTree.kNearestNeighbor(c.getPoint2D(), this.capacity,
+							survivors, oldRadius);
 					double newRadius = c.getPoint2D().distanceSq(newLabeledPoints.get(this.capacity - 1).getPoint2D());
 					this.heap.insert(newRadius, newLabeledPoints);
+					this.heapSize++;
+					this.reinserted++;
+					if (this.checkpoint != null) {
+						this.checkpoint.recordInsert(newRadius, newLabeledPoints);
+					}
 				}
 			}
 		} catch (Exception e) {
@@ -83,7 +193,84 @@ public class KCapFL<LPoint extends LabeledPoint2D> {
 
 			System.out.println("You're doing something wrong.");
 		}
-		return this.extractCluster();
+		return this.extractClusterHelper();
+	}
+
+	/* Save the state of KCapFL to the given file, so that a long-running extraction can be resumed after a crash or a
+	restart. The first checkpoint to a file writes the whole state: every cluster returned so far, copied from the log,
+	and the shapes of the extended kd-tree and the heap, which are written as they are, without being changed, and
+	rebuilt exactly by resume, so that clusters extracted afterwards are the same whether or not the process is
+	restarted. Later checkpoints to the same file only append the changes made since the previous one, including the
+	clusters returned. */
+	public void checkpoint(String fileName) throws Exception {
+		if (this.checkpoint != null && this.checkpoint.getFileName().equals(fileName)) {
+			this.checkpoint.writeDelta();
+			return;
+		}
+		this.checkpoint = null;
+		this.checkpoint = KCapFLCheckpoint.writeBase(fileName, this.capacity, this.kdTree, this.heap, this.clusters);
+	}
+
+	/* Restore the state of KCapFL from the given checkpoint file, creating its points with the given factory, and
+	return every cluster recorded in the file, in order: those returned before its first checkpoint, and those
+	extracted between its first and last checkpoints. The file must have been written by a KCapFL with the same
+	capacity, bucket size, bounding box and kind of heap. Extraction then continues where it stopped, and further
+	checkpoints to the same file are appended to it. An incomplete checkpoint at the end of the file, left by a crash
+	while it was being written, is ignored. */
+	public ArrayList<ArrayList<LPoint>> resume(String fileName, LabeledPointFactory<LPoint> factory) throws Exception {
+		this.clear();
+		this.clusters = new KCapFLCheckpoint.ClusterLog();
+		final ArrayList<ArrayList<LPoint>> emitted = new ArrayList<ArrayList<LPoint>>();
+		try {
+			this.readCheckpoint(fileName, factory, emitted);
+		} catch (Exception e) {
+			this.clear();
+			throw e;
+		}
+		return emitted;
+	}
+
+	/* Private helper method for resume, which reads a checkpoint file into KCapFL and the given list of clusters. */
+	private void readCheckpoint(String fileName, LabeledPointFactory<LPoint> factory,
+			final ArrayList<ArrayList<LPoint>> emitted) throws Exception {
+		this.checkpoint = KCapFLCheckpoint.read(fileName, this.capacity, this.kdTree, this.heap, factory,
+				new KCapFLCheckpoint.State<LPoint>() {
+			public void emitted(ArrayList<LPoint> cluster) throws Exception {
+				clusters.append(cluster);
+				emitted.add(cluster);
+			}
+
+			public void restoreTree(ShapeReader<Double, LPoint> in) throws Exception {
+				kdTree.readShape(in);
+			}
+
+			public void restoreHeap(ShapeReader<Double, ArrayList<LPoint>> in) throws Exception {
+				heap.readShape(in);
+				heap.forEach(new BiConsumer<Double, ArrayList<LPoint>>() {
+					public void accept(Double key, ArrayList<LPoint> value) {
+						heapSize++;
+					}
+				});
+			}
+
+			public void pop() throws Exception {
+				heap.extractMin();
+				heapSize--;
+			}
+
+			public void insert(double key, ArrayList<LPoint> pts) {
+				heap.insert(key, pts);
+				heapSize++;
+			}
+
+			public void emit(ArrayList<LPoint> cluster) throws Exception {
+				for (LPoint point : cluster) {
+					kdTree.remove(point);
+				}
+				clusters.append(cluster);
+				emitted.add(cluster);
+			}
+		});
 	}
 
 	/* Returns a list representation of the extended kd-tree, for debugging purposes. */
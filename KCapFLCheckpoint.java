@@ -0,0 +1,592 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.zip.CRC32;
+
+/* Checkpoint file of a KCapFL, written with buffered sequential writes through a file channel. The file starts with a
+header, followed by a base record holding the full state of the locator, followed by any number of delta records,
+each holding the operations performed since the previous record. Taking a checkpoint after the first one only appends
+a delta, so checkpoints stay cheap to take often. A new file is written under a temporary name and then renamed over
+the old one, so that a crash while it is being written leaves the previous checkpoint intact.
+
+Every record is framed as a type byte, the length of its payload, the payload, and a CRC32 checksum of the payload. A
+record cut short or corrupted by a crash fails its checksum, and it and everything after it are ignored on resume.
+
+The base record holds the parameters of the locator (its capacity, the bucket size and bounding box of its kd-tree, and
+the class of its heap), every cluster returned so far, streamed from the locator's cluster log, and then the shapes of
+the kd-tree and the heap, as written by their writeShape methods, so that they are rebuilt exactly as they were, down
+to the order in which ties are broken. A point is written in full, as its label and coordinates, the first time it is
+met, and by its index afterwards. A delta record holds a sequence of operations: popping the heap, inserting into the
+heap, and emitting a cluster, which deletes its points from the kd-tree, with points given by their indices. */
+
+public class KCapFLCheckpoint<LPoint extends LabeledPoint2D> {
+
+	private static final int MAGIC = 0x4B43464C;
+	private static final int VERSION = 3;
+	private static final int HEADER_BYTES = 8;
+	private static final int BUFFER_BYTES = 1 << 16;
+	private static final byte BASE = 'B', DELTA = 'D';
+	private static final byte POP = 'P', INSERT = 'I', CLUSTER = 'C';
+
+	/* A state receives the contents of a checkpoint while it is being read: first the clusters returned before the
+	base record, then the shapes of the kd-tree and the heap, then every operation of every delta, in order. */
+
+	interface State<LPoint> {
+		void emitted(ArrayList<LPoint> cluster) throws Exception;
+		void restoreTree(ShapeReader<Double, LPoint> in) throws Exception;
+		void restoreHeap(ShapeReader<Double, ArrayList<LPoint>> in) throws Exception;
+		void pop() throws Exception;
+		void insert(double key, ArrayList<LPoint> pts) throws Exception;
+		void emit(ArrayList<LPoint> cluster) throws Exception;
+	}
+
+	/* Log of the clusters returned by a KCapFL, appended to a temporary file as they are returned, so that the base
+	record of a checkpoint can hold every one of them without the locator keeping them in memory. Each cluster is
+	written as its size followed by the label and coordinates of its points, as the base record holds them. */
+
+	static class ClusterLog {
+		private Path file;
+		private FileChannel channel;
+		private Output out;
+		private long count;
+
+		ClusterLog() throws IOException {
+			this.file = Files.createTempFile("kcapfl", ".clusters");
+			this.file.toFile().deleteOnExit();
+			this.channel = FileChannel.open(this.file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.out = new Output(this.channel);
+			this.count = 0;
+		}
+
+		void append(ArrayList<? extends LabeledPoint2D> cluster) throws IOException {
+			this.out.putInt(cluster.size());
+			for (LabeledPoint2D point : cluster) {
+				putLabeled(this.out, point);
+			}
+			this.count++;
+		}
+
+		/* Write the number of clusters logged, then the clusters themselves, copied from the file. */
+		void copyTo(Output dest) throws IOException {
+			this.out.flush();
+			dest.putLong(this.count);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+			long position = 0, end = this.channel.position();
+			while (position < end) {
+				buffer.clear();
+				buffer.limit((int) Math.min(BUFFER_BYTES, end - position));
+				position += this.channel.read(buffer, position);
+				buffer.flip();
+				dest.putBuffer(buffer);
+			}
+		}
+
+		void delete() throws IOException {
+			this.channel.close();
+			Files.deleteIfExists(this.file);
+		}
+	}
+
+	/* A checkpoint keeps the name of its file, the length of its valid contents, the index of every point in the
+	state, and the journal of operations performed since the last record was written. */
+
+	private String fileName;
+	private long length;
+	private IdentityHashMap<LPoint, Integer> ids;
+	private ByteArrayOutputStream journalBytes;
+	private DataOutputStream journal;
+
+	private KCapFLCheckpoint(String fileName, long length, IdentityHashMap<LPoint, Integer> ids) {
+		this.fileName = fileName;
+		this.length = length;
+		this.ids = ids;
+		this.journalBytes = new ByteArrayOutputStream();
+		this.journal = new DataOutputStream(this.journalBytes);
+	}
+
+	/* Return the name of the checkpoint file. */
+	String getFileName() {
+		return this.fileName;
+	}
+
+	/* Write a new checkpoint file holding the given state, replacing any existing file of that name. Nothing in the
+	state is changed. The file is written and forced to disk under a temporary name first, and only then atomically
+	renamed. */
+	static <LPoint extends LabeledPoint2D> KCapFLCheckpoint<LPoint> writeBase(String fileName, int capacity,
+			XkdTree<LPoint> tree, MeldableHeap<Double, ArrayList<LPoint>> heap, ClusterLog clusters) throws Exception {
+		final IdentityHashMap<LPoint, Integer> ids = new IdentityHashMap<LPoint, Integer>();
+		Path path = Paths.get(fileName);
+		Path temp = Paths.get(fileName + ".tmp");
+		FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		long length;
+		try {
+			final Output out = new Output(channel);
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.beginRecord(BASE);
+			out.putInt(capacity);
+			out.putInt(tree.getBucketSize());
+			putBox(out, tree.getBoundingBox());
+			byte[] heapClass = heap.getClass().getName().getBytes(StandardCharsets.UTF_8);
+			out.putInt(heapClass.length);
+			out.putBytes(heapClass);
+			if (clusters == null) {
+				out.putLong(0);
+			} else {
+				clusters.copyTo(out);
+			}
+			tree.writeShape(new ShapeWriter<Double, LPoint>() {
+				public void putInt(int v) throws IOException {
+					out.putInt(v);
+				}
+
+				public void putKey(Double key) throws IOException {
+					out.putDouble(key);
+				}
+
+				public void putValue(LPoint point) throws IOException {
+					putPoint(out, point, ids);
+				}
+			});
+			heap.writeShape(new ShapeWriter<Double, ArrayList<LPoint>>() {
+				public void putInt(int v) throws IOException {
+					out.putInt(v);
+				}
+
+				public void putKey(Double key) throws IOException {
+					out.putDouble(key);
+				}
+
+				public void putValue(ArrayList<LPoint> pts) throws IOException {
+					out.putInt(pts.size());
+					for (LPoint point : pts) {
+						putPoint(out, point, ids);
+					}
+				}
+			});
+			out.endRecord();
+			channel.force(false);
+			length = channel.size();
+		} finally {
+			channel.close();
+		}
+		Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+		return new KCapFLCheckpoint<LPoint>(fileName, length, ids);
+	}
+
+	/* Private helper methods which write a point of the state, in full if it has no index yet, preceded by -1, and by
+	its index otherwise; a labeled point as its label and coordinates; and a bounding box as its corners. */
+
+	private static <LPoint extends LabeledPoint2D> void putPoint(Output out, LPoint point,
+			IdentityHashMap<LPoint, Integer> ids) throws IOException {
+		Integer id = ids.get(point);
+		if (id != null) {
+			out.putInt(id);
+			return;
+		}
+		out.putInt(-1);
+		putLabeled(out, point);
+		ids.put(point, ids.size());
+	}
+
+	private static void putLabeled(Output out, LabeledPoint2D point) throws IOException {
+		byte[] label = point.getLabel().getBytes(StandardCharsets.UTF_8);
+		out.putInt(label.length);
+		out.putBytes(label);
+		out.putDouble(point.getX());
+		out.putDouble(point.getY());
+	}
+
+	private static void putBox(Output out, Rectangle2D bbox) throws IOException {
+		out.putDouble(bbox.getLow().getX());
+		out.putDouble(bbox.getLow().getY());
+		out.putDouble(bbox.getHigh().getX());
+		out.putDouble(bbox.getHigh().getY());
+	}
+
+	/* Record operations in the journal. Every point involved was already in the state when the base record was
+	written, so it already has an index. */
+
+	void recordPop() throws IOException {
+		this.journal.writeByte(POP);
+	}
+
+	void recordInsert(double key, ArrayList<LPoint> pts) throws IOException {
+		this.journal.writeByte(INSERT);
+		this.journal.writeDouble(key);
+		this.journalIds(pts);
+	}
+
+	void recordCluster(ArrayList<LPoint> cluster) throws IOException {
+		this.journal.writeByte(CLUSTER);
+		this.journalIds(cluster);
+	}
+
+	private void journalIds(ArrayList<LPoint> pts) throws IOException {
+		this.journal.writeInt(pts.size());
+		for (LPoint point : pts) {
+			this.journal.writeInt(this.ids.get(point));
+		}
+	}
+
+	/* Append the journal to the checkpoint file as a delta record, and start a new, empty journal. The file is first
+	cut back to its valid length, dropping anything left over from an interrupted write. */
+	void writeDelta() throws Exception {
+		if (this.journalBytes.size() == 0) {
+			return;
+		}
+		FileChannel channel = FileChannel.open(Paths.get(this.fileName), StandardOpenOption.WRITE);
+		try {
+			channel.truncate(this.length);
+			channel.position(this.length);
+			Output out = new Output(channel);
+			out.beginRecord(DELTA);
+			out.putBytes(this.journalBytes.toByteArray());
+			out.endRecord();
+			channel.force(false);
+			this.length = channel.size();
+		} finally {
+			channel.close();
+		}
+		this.journalBytes.reset();
+	}
+
+	/* Read a checkpoint file into the given state, materializing its points with the given factory, and return a
+	checkpoint to which further deltas can be appended. The file must have been written by a locator with the given
+	capacity, kd-tree and heap class. Records are read in two passes: the first finds the valid prefix of the file by
+	checking every record's checksum, and the second reads the records of that prefix. */
+	static <LPoint extends LabeledPoint2D> KCapFLCheckpoint<LPoint> read(String fileName, int capacity,
+			XkdTree<LPoint> tree, MeldableHeap<Double, ArrayList<LPoint>> heap,
+			final LabeledPointFactory<LPoint> factory, State<LPoint> state) throws Exception {
+		FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		try {
+			Input scan = new Input(channel);
+			if (scan.getInt() != MAGIC || scan.getInt() != VERSION) {
+				throw new Exception("Not a checkpoint file");
+			}
+			long length = HEADER_BYTES;
+			try {
+				while (true) {
+					scan.getByte();
+					long payload = scan.getLong();
+					if (payload < 0 || length + 17 + payload > channel.size()) {
+						break;
+					}
+					CRC32 crc = new CRC32();
+					scan.checksum(payload, crc);
+					if (scan.getLong() != crc.getValue()) {
+						break;
+					}
+					length += 17 + payload;
+				}
+			} catch (EOFException e) {
+
+				/* The last record was cut short. */
+
+			}
+			if (length == HEADER_BYTES) {
+				throw new Exception("Checkpoint file has no complete base record");
+			}
+
+			channel.position(HEADER_BYTES);
+			final Input in = new Input(channel);
+			final IdentityHashMap<LPoint, Integer> ids = new IdentityHashMap<LPoint, Integer>();
+			final ArrayList<LPoint> table = new ArrayList<LPoint>();
+			while (in.position() < length) {
+				byte type = in.getByte();
+				long end = in.position() + 8 + in.getLong();
+				if (type == BASE) {
+					if (in.getInt() != capacity) {
+						throw new Exception("Checkpoint capacity does not match");
+					}
+					if (in.getInt() != tree.getBucketSize()) {
+						throw new Exception("Checkpoint bucket size does not match");
+					}
+					Rectangle2D bbox = tree.getBoundingBox();
+					if (in.getDouble() != bbox.getLow().getX() || in.getDouble() != bbox.getLow().getY()
+							|| in.getDouble() != bbox.getHigh().getX() || in.getDouble() != bbox.getHigh().getY()) {
+						throw new Exception("Checkpoint bounding box does not match");
+					}
+					byte[] heapClass = new byte[in.getInt()];
+					in.getBytes(heapClass);
+					if (!new String(heapClass, StandardCharsets.UTF_8).equals(heap.getClass().getName())) {
+						throw new Exception("Checkpoint heap does not match");
+					}
+					long clusters = in.getLong();
+					for (long i = 0; i < clusters; i++) {
+						int n = in.getInt();
+						ArrayList<LPoint> cluster = new ArrayList<LPoint>();
+						for (int j = 0; j < n; j++) {
+							cluster.add(getLabeled(in, factory));
+						}
+						state.emitted(cluster);
+					}
+					state.restoreTree(new ShapeReader<Double, LPoint>() {
+						public int getInt() throws IOException {
+							return in.getInt();
+						}
+
+						public Double getKey() throws IOException {
+							return in.getDouble();
+						}
+
+						public LPoint getValue() throws IOException {
+							return getPoint(in, factory, ids, table);
+						}
+					});
+					state.restoreHeap(new ShapeReader<Double, ArrayList<LPoint>>() {
+						public int getInt() throws IOException {
+							return in.getInt();
+						}
+
+						public Double getKey() throws IOException {
+							return in.getDouble();
+						}
+
+						public ArrayList<LPoint> getValue() throws IOException {
+							int n = in.getInt();
+							ArrayList<LPoint> res = new ArrayList<LPoint>();
+							for (int i = 0; i < n; i++) {
+								res.add(getPoint(in, factory, ids, table));
+							}
+							return res;
+						}
+					});
+				} else if (type == DELTA) {
+					while (in.position() < end) {
+						byte op = in.getByte();
+						if (op == POP) {
+							state.pop();
+						} else if (op == INSERT) {
+							double key = in.getDouble();
+							state.insert(key, getIds(in, table));
+						} else if (op == CLUSTER) {
+							state.emit(getIds(in, table));
+						} else {
+							throw new Exception("Unknown checkpoint operation");
+						}
+					}
+				} else {
+					throw new Exception("Unknown checkpoint record");
+				}
+				in.getLong();
+			}
+			return new KCapFLCheckpoint<LPoint>(fileName, length, ids);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/* Private helper methods which read a point of the state written by putPoint, and a labeled point written by
+	putLabeled. */
+
+	private static <LPoint extends LabeledPoint2D> LPoint getPoint(Input in, LabeledPointFactory<LPoint> factory,
+			IdentityHashMap<LPoint, Integer> ids, ArrayList<LPoint> table) throws IOException {
+		int id = in.getInt();
+		if (id >= 0) {
+			return table.get(id);
+		}
+		LPoint point = getLabeled(in, factory);
+		ids.put(point, table.size());
+		table.add(point);
+		return point;
+	}
+
+	private static <LPoint extends LabeledPoint2D> LPoint getLabeled(Input in, LabeledPointFactory<LPoint> factory)
+			throws IOException {
+		byte[] label = new byte[in.getInt()];
+		in.getBytes(label);
+		return factory.create(new String(label, StandardCharsets.UTF_8), in.getDouble(), in.getDouble());
+	}
+
+	/* Private helper method which reads a list of points journaled by their indices. */
+	private static <LPoint> ArrayList<LPoint> getIds(Input in, ArrayList<LPoint> table) throws IOException {
+		int n = in.getInt();
+		ArrayList<LPoint> res = new ArrayList<LPoint>();
+		for (int i = 0; i < n; i++) {
+			res.add(table.get(in.getInt()));
+		}
+		return res;
+	}
+
+	/* Buffered writer over a file channel. Values are gathered in a direct buffer which is written out whenever it
+	fills up. Within a record, every byte written also updates the record's checksum, and the record's length is
+	filled in once the record ends. */
+
+	private static class Output {
+		FileChannel channel;
+		ByteBuffer buffer;
+		CRC32 crc;
+		long recordStart;
+
+		Output(FileChannel channel) {
+			this.channel = channel;
+			this.buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+			this.crc = null;
+		}
+
+		void beginRecord(byte type) throws IOException {
+			this.putByte(type);
+			this.putLong(0);
+			this.flush();
+			this.recordStart = this.channel.position();
+			this.crc = new CRC32();
+		}
+
+		void endRecord() throws IOException {
+			this.flush();
+			long payload = this.channel.position() - this.recordStart;
+			long checksum = this.crc.getValue();
+			this.crc = null;
+			this.putLong(checksum);
+			this.flush();
+			ByteBuffer length = ByteBuffer.allocate(8);
+			length.putLong(payload).flip();
+			this.channel.write(length, this.recordStart - 8);
+		}
+
+		void putByte(byte v) throws IOException {
+			this.ensure(1);
+			this.buffer.put(v);
+		}
+
+		void putInt(int v) throws IOException {
+			this.ensure(4);
+			this.buffer.putInt(v);
+		}
+
+		void putLong(long v) throws IOException {
+			this.ensure(8);
+			this.buffer.putLong(v);
+		}
+
+		void putDouble(double v) throws IOException {
+			this.ensure(8);
+			this.buffer.putDouble(v);
+		}
+
+		void putBytes(byte[] v) throws IOException {
+			int i = 0;
+			while (i < v.length) {
+				this.ensure(1);
+				int n = Math.min(v.length - i, this.buffer.remaining());
+				this.buffer.put(v, i, n);
+				i += n;
+			}
+		}
+
+		void putBuffer(ByteBuffer v) throws IOException {
+			while (v.hasRemaining()) {
+				this.ensure(1);
+				ByteBuffer part = v.duplicate();
+				part.limit(part.position() + Math.min(v.remaining(), this.buffer.remaining()));
+				this.buffer.put(part);
+				v.position(part.position());
+			}
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (this.buffer.remaining() < bytes) {
+				this.flush();
+			}
+		}
+
+		void flush() throws IOException {
+			this.buffer.flip();
+			if (this.crc != null) {
+				this.crc.update(this.buffer.duplicate());
+			}
+			while (this.buffer.hasRemaining()) {
+				this.channel.write(this.buffer);
+			}
+			this.buffer.clear();
+		}
+	}
+
+	/* Buffered reader over a file channel, which refills a direct buffer whenever it runs low, and throws an
+	EOFException if the file ends in the middle of a value. */
+
+	private static class Input {
+		FileChannel channel;
+		ByteBuffer buffer;
+
+		Input(FileChannel channel) {
+			this.channel = channel;
+			this.buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+			this.buffer.flip();
+		}
+
+		long position() throws IOException {
+			return this.channel.position() - this.buffer.remaining();
+		}
+
+		byte getByte() throws IOException {
+			this.ensure(1);
+			return this.buffer.get();
+		}
+
+		int getInt() throws IOException {
+			this.ensure(4);
+			return this.buffer.getInt();
+		}
+
+		long getLong() throws IOException {
+			this.ensure(8);
+			return this.buffer.getLong();
+		}
+
+		double getDouble() throws IOException {
+			this.ensure(8);
+			return this.buffer.getDouble();
+		}
+
+		void getBytes(byte[] v) throws IOException {
+			int i = 0;
+			while (i < v.length) {
+				this.ensure(1);
+				int n = Math.min(v.length - i, this.buffer.remaining());
+				this.buffer.get(v, i, n);
+				i += n;
+			}
+		}
+
+		/* Read the given number of bytes, only to add them to a checksum. */
+		void checksum(long bytes, CRC32 crc) throws IOException {
+			while (bytes > 0) {
+				this.ensure(1);
+				int n = (int) Math.min(bytes, this.buffer.remaining());
+				ByteBuffer slice = this.buffer.duplicate();
+				slice.limit(slice.position() + n);
+				crc.update(slice);
+				this.buffer.position(this.buffer.position() + n);
+				bytes -= n;
+			}
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (this.buffer.remaining() >= bytes) {
+				return;
+			}
+			this.buffer.compact();
+			while (this.buffer.position() < bytes) {
+				if (this.channel.read(this.buffer) < 0) {
+					this.buffer.flip();
+					throw new EOFException();
+				}
+			}
+			this.buffer.flip();
+		}
+	}
+}
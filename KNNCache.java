@@ -0,0 +1,313 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/* Bounded cache of k nearest neighbors results, for an extended kd-tree which receives many queries for the same
+locations. Results are keyed by their query point and k. If a quantum is given, query points are snapped to the nearest
+point of a grid with that spacing to form the key, so that nearby queries share one entry; the result returned is then
+the exact answer for the first query which filled that entry, and an approximation for the others. The snapped point is
+only a key: results are always computed for, and measured from, an actual query point. With a quantum of 0, only
+identical query points share an entry, and every result is exact.
+
+Entries are evicted in least recently used order once there are more than a maximum number of them, or once their total
+weight, the number of points in all of their results, is more than a maximum weight. An entry stays valid until a point
+is inserted into or deleted from the tree within the radius of its result, the distance from its query point to its kth
+point, and the tree notifies the cache of every such change. An entry with fewer than k points holds every point of the
+tree, so any change invalidates it.
+
+To find the entries a change invalidates without looking at all of them, the bounding box of the tree is divided into a
+grid of cells, and every entry is listed in each cell its radius reaches. An entry reaching too many cells, or with an
+infinite radius, is listed once, among the wide entries, which are checked on every change.
+
+Every method is synchronized, since looking up an entry moves it to the back of the eviction order, so that the tree may
+be queried from several threads at once. Changes to the tree must still not run concurrently with queries. */
+
+public class KNNCache<LPoint extends LabeledPoint2D> {
+
+	private static final int GRID = 64;
+	private static final int MAX_CELLS = 16;
+
+	/* A key contains the bit patterns of the coordinates of a snapped query point, and k. */
+
+	private static class Key {
+		long x, y;
+		int k;
+
+		Key(Point2D q, int k) {
+			this.x = Double.doubleToLongBits(q.getX() + 0.0);
+			this.y = Double.doubleToLongBits(q.getY() + 0.0);
+			this.k = k;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return this.x == other.x && this.y == other.y && this.k == other.k;
+		}
+
+		public int hashCode() {
+			return (Long.hashCode(this.x) * 31 + Long.hashCode(this.y)) * 31 + this.k;
+		}
+	}
+
+	/* An entry contains its key, the query point its result was computed for, its result, the squared radius of its
+	result from that point, which is infinite if the result has fewer than k points, and the range of grid cells it is
+	listed in, or a low column of -1 if it is a wide entry. */
+
+	private class Entry {
+		Key key;
+		Point2D center;
+		ArrayList<LPoint> result;
+		double radiusSq;
+		int lowCol, lowRow, highCol, highRow;
+
+		Entry(Key key, Point2D center, int k, ArrayList<LPoint> result) {
+			this.key = key;
+			this.center = center;
+			this.result = result;
+			if (result.size() < k) {
+				this.radiusSq = Double.POSITIVE_INFINITY;
+			} else {
+				this.radiusSq = center.distanceSq(result.get(k - 1).getPoint2D());
+			}
+		}
+	}
+
+	/* The cache keeps its entries in access order, the entries listed in each nonempty grid cell and the wide entries,
+	the bounding box covered by the grid, its limits, the total weight of its entries, and counters for its hits,
+	misses, evictions, and invalidations. */
+
+	private LinkedHashMap<Key, Entry> entries;
+	private HashMap<Integer, HashSet<Entry>> cells;
+	private HashSet<Entry> wide;
+	private Rectangle2D bbox;
+	private double quantum;
+	private int maxEntries;
+	private long maxWeight, weight;
+	private long hits, misses, evictions, invalidations;
+
+	/* Construct a new, empty cache with the given limits on its number of entries and their total weight, and the
+	given quantum, throwing an IllegalArgumentException if a limit is not positive or the quantum is negative. */
+	public KNNCache(int maxEntries, long maxWeight, double quantum) {
+		if (maxEntries <= 0 || maxWeight <= 0 || !(quantum >= 0)) {
+			throw new IllegalArgumentException("Invalid cache limits");
+		}
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+		this.cells = new HashMap<Integer, HashSet<Entry>>();
+		this.wide = new HashSet<Entry>();
+		this.bbox = null;
+		this.quantum = quantum;
+		this.maxEntries = maxEntries;
+		this.maxWeight = maxWeight;
+		this.weight = 0;
+	}
+
+	/* Empty the cache and lay its grid over the given bounding box, that of the tree it is set on. Until then, every
+	entry is a wide entry. */
+	public synchronized void attach(Rectangle2D bbox) {
+		this.clear();
+		this.bbox = bbox;
+	}
+
+	/* Return the point a query point is snapped to, to form its key. */
+	public Point2D snap(Point2D q) {
+		if (this.quantum == 0) {
+			return q;
+		}
+		return new Point2D(Math.rint(q.getX() / this.quantum) * this.quantum,
+				Math.rint(q.getY() / this.quantum) * this.quantum);
+	}
+
+	/* Return a copy of the cached result for the key of a query point and k, or null if there is none. */
+	public synchronized ArrayList<LPoint> get(Point2D q, int k) {
+		Entry entry = this.entries.get(new Key(this.snap(q), k));
+		if (entry == null) {
+			this.misses++;
+			return null;
+		}
+		this.hits++;
+		return new ArrayList<LPoint>(entry.result);
+	}
+
+	/* Cache a copy of the result computed for a query point, under the key of that point and k, then evict least
+	recently used entries until the cache is within its limits. A result heavier than the maximum weight is not
+	cached. */
+	public synchronized void put(Point2D q, int k, ArrayList<LPoint> result) {
+		if (result.size() > this.maxWeight) {
+			return;
+		}
+		Key key = new Key(this.snap(q), k);
+		Entry old = this.entries.get(key);
+		if (old != null) {
+			this.remove(old);
+		}
+		Entry entry = new Entry(key, q, k, new ArrayList<LPoint>(result));
+		this.entries.put(key, entry);
+		this.weight += result.size();
+		this.list(entry);
+		Iterator<Entry> it = this.entries.values().iterator();
+		while (this.entries.size() > this.maxEntries || this.weight > this.maxWeight) {
+			Entry eldest = it.next();
+			it.remove();
+			this.unlist(eldest);
+			this.weight -= eldest.result.size();
+			this.evictions++;
+		}
+	}
+
+	/* Invalidate every entry whose result may change because the given points were inserted or deleted: every entry
+	with a point within its radius. A point exactly on the radius may change the order of the result, so it counts.
+	Only the entries listed in the cell of each point, and the wide entries, need to be checked. */
+	public synchronized void invalidate(ArrayList<LPoint> pts) {
+		if (pts.size() == 0 || this.entries.size() == 0) {
+			return;
+		}
+		ArrayList<Entry> invalid = new ArrayList<Entry>();
+		for (LPoint point : pts) {
+			if (this.bbox != null) {
+				HashSet<Entry> cell = this.cells.get(this.cellOf(this.column(point.getX()), this.row(point.getY())));
+				if (cell != null) {
+					this.collect(cell, point, invalid);
+				}
+			}
+			this.collect(this.wide, point, invalid);
+			for (Entry entry : invalid) {
+				this.remove(entry);
+				this.invalidations++;
+			}
+			invalid.clear();
+		}
+	}
+
+	/* Private helper method which adds the entries of a set whose radius reaches the given point to a list. */
+	private void collect(HashSet<Entry> set, LPoint point, ArrayList<Entry> invalid) {
+		for (Entry entry : set) {
+			if (entry.center.distanceSq(point.getPoint2D()) <= entry.radiusSq) {
+				invalid.add(entry);
+			}
+		}
+	}
+
+	/* Invalidate every entry, as when the tree is cleared. */
+	public synchronized void clear() {
+		this.invalidations += this.entries.size();
+		this.entries.clear();
+		this.cells.clear();
+		this.wide.clear();
+		this.weight = 0;
+	}
+
+	/* Private helper methods which remove an entry from the cache, list it in the grid cells its radius reaches, or
+	among the wide entries, and unlist it again. */
+
+	private void remove(Entry entry) {
+		this.entries.remove(entry.key);
+		this.unlist(entry);
+		this.weight -= entry.result.size();
+	}
+
+	private void list(Entry entry) {
+		entry.lowCol = -1;
+		if (this.bbox != null && entry.radiusSq < Double.POSITIVE_INFINITY) {
+			double r = Math.sqrt(entry.radiusSq);
+			int lowCol = this.column(entry.center.getX() - r), highCol = this.column(entry.center.getX() + r);
+			int lowRow = this.row(entry.center.getY() - r), highRow = this.row(entry.center.getY() + r);
+			if ((highCol - lowCol + 1) * (highRow - lowRow + 1) <= MAX_CELLS) {
+				entry.lowCol = lowCol;
+				entry.lowRow = lowRow;
+				entry.highCol = highCol;
+				entry.highRow = highRow;
+			}
+		}
+		if (entry.lowCol < 0) {
+			this.wide.add(entry);
+			return;
+		}
+		for (int i = entry.lowCol; i <= entry.highCol; i++) {
+			for (int j = entry.lowRow; j <= entry.highRow; j++) {
+				HashSet<Entry> cell = this.cells.get(this.cellOf(i, j));
+				if (cell == null) {
+					cell = new HashSet<Entry>();
+					this.cells.put(this.cellOf(i, j), cell);
+				}
+				cell.add(entry);
+			}
+		}
+	}
+
+	private void unlist(Entry entry) {
+		if (entry.lowCol < 0) {
+			this.wide.remove(entry);
+			return;
+		}
+		for (int i = entry.lowCol; i <= entry.highCol; i++) {
+			for (int j = entry.lowRow; j <= entry.highRow; j++) {
+				HashSet<Entry> cell = this.cells.get(this.cellOf(i, j));
+				cell.remove(entry);
+				if (cell.isEmpty()) {
+					this.cells.remove(this.cellOf(i, j));
+				}
+			}
+		}
+	}
+
+	/* Private helper methods which return the column or row of the grid containing a coordinate, clamped to the grid,
+	since a radius may reach beyond the bounding box but no point of the tree lies there, and the number of a cell. */
+
+	private int column(double x) {
+		return this.gridIndex(x, this.bbox.getLow().getX(), this.bbox.getHigh().getX());
+	}
+
+	private int row(double y) {
+		return this.gridIndex(y, this.bbox.getLow().getY(), this.bbox.getHigh().getY());
+	}
+
+	private int gridIndex(double v, double low, double high) {
+		if (!(high > low)) {
+			return 0;
+		}
+		return (int) Math.max(0, Math.min(GRID - 1, Math.floor((v - low) / (high - low) * GRID)));
+	}
+
+	private int cellOf(int col, int row) {
+		return col * GRID + row;
+	}
+
+	/* Return the number of entries in the cache. */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	/* Return the total weight of the entries in the cache. */
+	public synchronized long weight() {
+		return this.weight;
+	}
+
+	public synchronized long hits() {
+		return this.hits;
+	}
+
+	public synchronized long misses() {
+		return this.misses;
+	}
+
+	public synchronized long evictions() {
+		return this.evictions;
+	}
+
+	public synchronized long invalidations() {
+		return this.invalidations;
+	}
+
+	/* Return the fraction of lookups which were hits, or 0 if there were none. */
+	public synchronized double hitRate() {
+		if (this.hits + this.misses == 0) {
+			return 0.0;
+		}
+		return (double) this.hits / (this.hits + this.misses);
+	}
+}
@@ -0,0 +1,8 @@
+/* Factory for labeled points, used by structures which store only coordinates and labels instead of the point objects
+themselves, and need to materialize points again when returning them to the caller. */
+
+public interface LabeledPointFactory<LPoint extends LabeledPoint2D> {
+
+	/* Return a labeled point with the given label and coordinates. */
+	LPoint create(String label, double x, double y);
+}
@@ -1,8 +1,9 @@
 import java.util.ArrayList;
+import java.util.function.BiConsumer;
 
 /* Implementation of a meldable heap in Java containing key-value pairs, where keys are comparable to one another. */
 
-public class LeftistHeap<Key extends Comparable<Key>, Value> {
+public class LeftistHeap<Key extends Comparable<Key>, Value> implements MeldableHeap<Key, Value> {
 
 	/* A node of a leftist heap contains a key, a value, references to left and right "subtrees," and a variable
 	representing its "null path length," or shortest number of edges to a null reference. */
@@ -65,6 +66,19 @@ public class LeftistHeap<Key extends Comparable<Key>, Value> {
 		h2.root = null;
 	}
 
+	/* Merge a heap of any kind. Another leftist heap is merged as above; a heap of a different kind is drained into
+	this one, entry by entry. */
+	public void mergeWith(MeldableHeap<Key, Value> h2) throws Exception {
+		if (h2 == null || h2 instanceof LeftistHeap) {
+			this.mergeWith((LeftistHeap<Key, Value>) h2);
+			return;
+		}
+		while (!h2.isEmpty()) {
+			Key x = h2.getMinKey();
+			this.insert(x, h2.extractMin());
+		}
+	}
+
 	/* Private recursive helper method for merging. */
 	private LHNode merge(LHNode u, LHNode v) {
 		if (u == null) {
@@ -207,6 +221,87 @@ public class LeftistHeap<Key extends Comparable<Key>, Value> {
 		return v;
 	}
 
+	/* Visit every key-value pair in the heap, in pre-order. The traversal uses an explicit stack rather than
+	recursion, since the left paths of a leftist heap, unlike its right paths, may be as long as the heap is large. */
+	public void forEach(BiConsumer<Key, Value> action) throws Exception {
+		if (this.root == null) {
+			return;
+		}
+		ExpandingStack<LHNode> stack = new ExpandingStack<LHNode>(16);
+		stack.push(this.root);
+		while (stack.size() > 0) {
+			LHNode u = stack.pop();
+			action.accept(u.key, u.value);
+			if (u.right != null) {
+				stack.push(u.right);
+			}
+			if (u.left != null) {
+				stack.push(u.left);
+			}
+		}
+	}
+
+	/* Write the shape of the heap: whether it is empty, then its nodes in pre-order, each as which of its children are
+	present (1 for the left, 2 for the right), its null path length, its key and its value. */
+	public void writeShape(ShapeWriter<Key, Value> out) throws Exception {
+		out.putInt(this.root == null ? 0 : 1);
+		if (this.root == null) {
+			return;
+		}
+		ExpandingStack<LHNode> stack = new ExpandingStack<LHNode>(16);
+		stack.push(this.root);
+		while (stack.size() > 0) {
+			LHNode u = stack.pop();
+			out.putInt((u.left != null ? 1 : 0) | (u.right != null ? 2 : 0));
+			out.putInt(u.npl);
+			out.putKey(u.key);
+			out.putValue(u.value);
+			if (u.right != null) {
+				stack.push(u.right);
+			}
+			if (u.left != null) {
+				stack.push(u.left);
+			}
+		}
+	}
+
+	/* Rebuild the heap from a shape written by writeShape. Every node read fills the most recent place left open for a
+	child, the root's place first, and leaves open places for its own children, the left one on top. */
+	public void readShape(ShapeReader<Key, Value> in) throws Exception {
+		this.root = null;
+		if (in.getInt() == 0) {
+			return;
+		}
+		ExpandingStack<LHNode> parents = new ExpandingStack<LHNode>(16);
+		IntExpandingStack sides = new IntExpandingStack(16);
+		parents.push(null);
+		sides.push(0);
+		while (sides.size() > 0) {
+			LHNode parent = parents.pop();
+			int side = sides.pop();
+			int children = in.getInt();
+			int npl = in.getInt();
+			Key x = in.getKey();
+			LHNode u = new LHNode(x, in.getValue());
+			u.npl = npl;
+			if (side == 0) {
+				this.root = u;
+			} else if (side == 1) {
+				parent.left = u;
+			} else {
+				parent.right = u;
+			}
+			if ((children & 2) != 0) {
+				parents.push(u);
+				sides.push(2);
+			}
+			if ((children & 1) != 0) {
+				parents.push(u);
+				sides.push(1);
+			}
+		}
+	}
+
 	/* Return a list representation of the heap. */
 	public ArrayList<String> list() {
 		ArrayList<String> list = new ArrayList<String>();
@@ -0,0 +1,45 @@
+import java.util.ArrayList;
+
+/* Shard backed by an extended kd-tree in the same JVM. This stands in for a remote shard when testing, or when the
+point set still fits in one heap. Like a server handling one request at a time, it serves each call under a lock,
+since XkdTree itself is not thread-safe. */
+
+public class LocalXkdShard<LPoint extends LabeledPoint2D> implements XkdShard<LPoint> {
+	private Rectangle2D region;
+	private XkdTree<LPoint> tree;
+
+	/* Construct a shard holding an empty extended kd-tree with the given bucket size, whose bounding box is the
+	shard's region. */
+	public LocalXkdShard(int bucketSize, Rectangle2D region) {
+		this.region = region;
+		this.tree = new XkdTree<LPoint>(bucketSize, region);
+	}
+
+	public Rectangle2D getRegion() {
+		return this.region;
+	}
+
+	public synchronized int size() {
+		return this.tree.size();
+	}
+
+	public synchronized void clear() {
+		this.tree.clear();
+	}
+
+	public synchronized LPoint find(Point2D q) {
+		return this.tree.find(q);
+	}
+
+	public synchronized void bulkInsert(ArrayList<LPoint> pts) throws Exception {
+		this.tree.bulkInsert(pts);
+	}
+
+	public synchronized void delete(Point2D pt) throws Exception {
+		this.tree.delete(pt);
+	}
+
+	public synchronized ArrayList<LPoint> kNearestNeighbor(Point2D center, int k) {
+		return this.tree.kNearestNeighbor(center, k);
+	}
+}
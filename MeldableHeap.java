@@ -0,0 +1,41 @@
+import java.util.ArrayList;
+import java.util.function.BiConsumer;
+
+/* Interface of a meldable heap containing key-value pairs, where keys are comparable to one another. Merging two heaps
+of the same class links their structures; merging a heap of another class drains it into this one, entry by entry. */
+
+public interface MeldableHeap<Key extends Comparable<Key>, Value> {
+
+	/* Return whether the heap is empty. */
+	boolean isEmpty();
+
+	/* Remove every entry of the heap. */
+	void clear();
+
+	/* Insert a new key-value pair into the heap. */
+	void insert(Key x, Value v);
+
+	/* Move every entry of the given heap into this one, leaving the given heap empty. */
+	void mergeWith(MeldableHeap<Key, Value> h2) throws Exception;
+
+	/* Move every entry whose key is greater than the given key into a new heap, and return it. */
+	MeldableHeap<Key, Value> split(Key x);
+
+	/* Return the minimum key in the heap, or null if it is empty. */
+	Key getMinKey();
+
+	/* Return the value of the minimum key in the heap, and then remove it. */
+	Value extractMin() throws Exception;
+
+	/* Visit every key-value pair in the heap, in no particular order. */
+	void forEach(BiConsumer<Key, Value> action) throws Exception;
+
+	/* Write the shape of the heap, so that readShape can rebuild exactly the same heap, without changing it. */
+	void writeShape(ShapeWriter<Key, Value> out) throws Exception;
+
+	/* Replace the contents of the heap with a shape written by writeShape on a heap of the same class. */
+	void readShape(ShapeReader<Key, Value> in) throws Exception;
+
+	/* Return a list representation of the heap. */
+	ArrayList<String> list();
+}
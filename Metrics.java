@@ -0,0 +1,186 @@
+import java.util.ArrayList;
+
+/* Metrics listener which keeps a histogram of every reported value, so that spikes can be traced back to the tree
+depth, leaf occupancy, or stale heap entries that caused them. */
+
+public class Metrics implements MetricsListener {
+
+	/* A histogram counts values in buckets. By default bucket 0 holds 0 and bucket i holds values in
+	[2^(i-1), 2^i), so that values of any magnitude can be recorded in a fixed number of buckets; a linear histogram
+	instead has buckets of a fixed width. Besides the buckets, it keeps the count, sum, and maximum of all values. Its
+	methods are synchronized, since sharded and partitioned callers report from several threads into one histogram. */
+
+	public static class Histogram {
+		private long[] buckets;
+		private int width;
+		private long count, sum, max;
+
+		/* Construct a histogram with power-of-two buckets. */
+		public Histogram() {
+			this.buckets = new long[64];
+			this.width = 0;
+		}
+
+		/* Construct a histogram with buckets of the given width, covering values up to numBuckets * width. Larger
+		values are counted in the last bucket. */
+		public Histogram(int width, int numBuckets) {
+			this.buckets = new long[numBuckets];
+			this.width = width;
+		}
+
+		/* Record a non-negative value. */
+		public synchronized void record(long v) {
+			this.buckets[this.bucketOf(v)]++;
+			this.count++;
+			this.sum += v;
+			this.max = Math.max(this.max, v);
+		}
+
+		public synchronized long count() {
+			return this.count;
+		}
+
+		public synchronized long max() {
+			return this.max;
+		}
+
+		public synchronized double mean() {
+			if (this.count == 0) {
+				return 0.0;
+			}
+			return (double) this.sum / this.count;
+		}
+
+		/* Return an upper bound on the value below which the given fraction of recorded values fall: the upper end of
+		the bucket containing that percentile, or the maximum if that is smaller. */
+		public synchronized long percentile(double p) {
+			long rank = (long) Math.ceil(p * this.count), seen = 0;
+			for (int i = 0; i < this.buckets.length; i++) {
+				seen += this.buckets[i];
+				if (seen >= rank && seen > 0) {
+					return Math.min(this.upperBound(i), this.max);
+				}
+			}
+			return this.max;
+		}
+
+		/* Forget every recorded value. */
+		public synchronized void clear() {
+			this.buckets = new long[this.buckets.length];
+			this.count = 0;
+			this.sum = 0;
+			this.max = 0;
+		}
+
+		/* Return a one-line summary of the histogram. */
+		public synchronized String toString() {
+			return "count=" + this.count + " mean=" + String.format("%.2f", this.mean()) + " p50=" + this.percentile(0.5)
+					+ " p99=" + this.percentile(0.99) + " max=" + this.max;
+		}
+
+		private int bucketOf(long v) {
+			if (this.width > 0) {
+				return (int) Math.min(v / this.width, this.buckets.length - 1);
+			}
+			return 64 - Long.numberOfLeadingZeros(v);
+		}
+
+		private long upperBound(int i) {
+			if (this.width > 0) {
+				return (long) (i + 1) * this.width - 1;
+			}
+			if (i == 0) {
+				return 0;
+			}
+			return (1L << i) - 1;
+		}
+	}
+
+	/* One histogram for every reported value. The prune ratio is recorded as a percentage, in linear buckets of one
+	percent each. */
+
+	private Histogram nodesVisited = new Histogram();
+	private Histogram leavesScanned = new Histogram();
+	private Histogram distanceEvaluations = new Histogram();
+	private Histogram pruneRatio = new Histogram(1, 101);
+	private Histogram leafSizes = new Histogram();
+	private int depth;
+	private Histogram stalePops = new Histogram();
+	private Histogram reinserted = new Histogram();
+	private Histogram heapSize = new Histogram();
+
+	public void kNearestNeighbor(int nodesVisited, int leavesScanned, int distanceEvaluations, int nodesPruned) {
+		this.nodesVisited.record(nodesVisited);
+		this.leavesScanned.record(leavesScanned);
+		this.distanceEvaluations.record(distanceEvaluations);
+		if (nodesVisited > 0) {
+			this.pruneRatio.record(100L * nodesPruned / nodesVisited);
+		}
+	}
+
+	/* Only the most recent structure report is kept. */
+	public synchronized void treeStructure(int depth, ArrayList<Integer> leafSizes) {
+		this.depth = depth;
+		this.leafSizes.clear();
+		for (int size : leafSizes) {
+			this.leafSizes.record(size);
+		}
+	}
+
+	public void extractCluster(int stalePops, int reinserted, int heapSize) {
+		this.stalePops.record(stalePops);
+		this.reinserted.record(reinserted);
+		this.heapSize.record(heapSize);
+	}
+
+	public Histogram getNodesVisited() {
+		return this.nodesVisited;
+	}
+
+	public Histogram getLeavesScanned() {
+		return this.leavesScanned;
+	}
+
+	public Histogram getDistanceEvaluations() {
+		return this.distanceEvaluations;
+	}
+
+	public Histogram getPruneRatio() {
+		return this.pruneRatio;
+	}
+
+	public Histogram getLeafSizes() {
+		return this.leafSizes;
+	}
+
+	public synchronized int getDepth() {
+		return this.depth;
+	}
+
+	public Histogram getStalePops() {
+		return this.stalePops;
+	}
+
+	public Histogram getReinserted() {
+		return this.reinserted;
+	}
+
+	public Histogram getHeapSize() {
+		return this.heapSize;
+	}
+
+	/* Return a list representation of every histogram. */
+	public synchronized ArrayList<String> list() {
+		ArrayList<String> res = new ArrayList<String>();
+		res.add("kNN nodes visited: " + this.nodesVisited);
+		res.add("kNN leaves scanned: " + this.leavesScanned);
+		res.add("kNN distance evaluations: " + this.distanceEvaluations);
+		res.add("kNN prune ratio (%): " + this.pruneRatio);
+		res.add("tree depth: " + this.depth);
+		res.add("leaf sizes: " + this.leafSizes);
+		res.add("stale pops per extraction: " + this.stalePops);
+		res.add("reinserted per extraction: " + this.reinserted);
+		res.add("heap size: " + this.heapSize);
+		return res;
+	}
+}
@@ -0,0 +1,20 @@
+import java.util.ArrayList;
+
+/* Listener for metrics reported by XkdTree and KCapFL. A structure only collects and reports metrics once a listener
+has been set on it; without one, it does no more than bump a few counters. */
+
+public interface MetricsListener {
+
+	/* Called after every k nearest neighbors query on an extended kd-tree, with the number of nodes the search entered,
+	how many of those were external nodes whose points were scanned, how many point distances were computed, and how
+	many nodes were pruned because their cell was farther than the current kth nearest point. */
+	void kNearestNeighbor(int nodesVisited, int leavesScanned, int distanceEvaluations, int nodesPruned);
+
+	/* Called when an extended kd-tree is asked to report its structure, with its depth (the number of edges on its
+	longest root-to-leaf path) and the number of points in each of its external nodes, from left to right. */
+	void treeStructure(int depth, ArrayList<Integer> leafSizes);
+
+	/* Called after every cluster extraction of KCapFL, with the number of stale candidates popped from the heap, how
+	many of those were recomputed and inserted back, and the size of the heap afterwards. */
+	void extractCluster(int stalePops, int reinserted, int heapSize);
+}
@@ -0,0 +1,264 @@
+import java.util.ArrayList;
+import java.util.function.BiConsumer;
+
+/* Implementation of a pairing heap in Java containing key-value pairs, where keys are comparable to one another. Unlike
+a leftist heap, a pairing heap keeps no balance information: merging two heaps only links the root with the larger key
+under the other root, and all the work is left to extractMin, which pairs up the children of the removed root from left
+to right and then merges the pairs from right to left. Both passes are iterative, since a root may have as many children
+as the heap has entries. */
+
+public class PairingHeap<Key extends Comparable<Key>, Value> implements MeldableHeap<Key, Value> {
+
+	/* A node of a pairing heap contains a key, a value, a reference to its leftmost child, and a reference to its next
+	sibling to the right. */
+
+	class PHNode {
+		Key key;
+		Value value;
+		PHNode child, sibling;
+
+		private PHNode(Key x, Value v) {
+			this.key = x;
+			this.value = v;
+			this.child = null;
+			this.sibling = null;
+		}
+	}
+
+	/* Private member representing this heap's root node, which never has a sibling. */
+	private PHNode root;
+
+	/* Construct a new, empty heap. */
+	public PairingHeap() {
+		this.root = null;
+	}
+
+	/* A heap is empty if the root is null. */
+	public boolean isEmpty() {
+		return this.root == null;
+	}
+
+	/* "Reset" the current heap. */
+	public void clear() {
+		this.root = null;
+	}
+
+	/* Insert a new key-value pair into the heap, by linking a new node with the root. */
+	public void insert(Key x, Value v) {
+		this.root = link(this.root, new PHNode(x, v));
+	}
+
+	/* Merge two pairing heaps by linking their roots, and discard the heap that was merged. */
+	public void mergeWith(PairingHeap<Key, Value> h2) {
+		if (h2 == null || this == h2) {
+			return;
+		}
+		this.root = link(this.root, h2.root);
+		h2.root = null;
+	}
+
+	/* Merge a heap of any kind. Another pairing heap is merged as above; a heap of a different kind is drained into
+	this one, entry by entry. */
+	public void mergeWith(MeldableHeap<Key, Value> h2) throws Exception {
+		if (h2 == null || h2 instanceof PairingHeap) {
+			this.mergeWith((PairingHeap<Key, Value>) h2);
+			return;
+		}
+		while (!h2.isEmpty()) {
+			Key x = h2.getMinKey();
+			this.insert(x, h2.extractMin());
+		}
+	}
+
+	/* Private helper method which links two roots, making the one with the larger key the leftmost child of the
+	other, and returns the new root. */
+	private PHNode link(PHNode u, PHNode v) {
+		if (u == null) {
+			return v;
+		}
+		if (v == null) {
+			return u;
+		}
+		if (u.key.compareTo(v.key) > 0) {
+			PHNode temp = u;
+			u = v;
+			v = temp;
+		}
+		v.sibling = u.child;
+		u.child = v;
+		return u;
+	}
+
+	/* Private helper method which merges a list of siblings into a single root, in two passes. The first pass links
+	the siblings in pairs from left to right, collecting the results in a list linked through their sibling references,
+	rightmost pair first. The second pass walks that list, linking each pair into the result. */
+	private PHNode mergePairs(PHNode first) {
+		PHNode pairs = null;
+		PHNode u = first;
+		while (u != null) {
+			PHNode v = u.sibling;
+			PHNode next = null;
+			if (v != null) {
+				next = v.sibling;
+				v.sibling = null;
+			}
+			u.sibling = null;
+			PHNode w = link(u, v);
+			w.sibling = pairs;
+			pairs = w;
+			u = next;
+		}
+		PHNode res = null;
+		while (pairs != null) {
+			PHNode next = pairs.sibling;
+			pairs.sibling = null;
+			res = link(res, pairs);
+			pairs = next;
+		}
+		return res;
+	}
+
+	/* Split the current heap by a given key. Keys are heap-ordered, so a node whose key is greater than the given key
+	is cut off along with its whole subtree and linked into the new heap, and only the children of nodes which stay need
+	to be examined. */
+	public PairingHeap<Key, Value> split(Key x) {
+		PairingHeap<Key, Value> h2 = new PairingHeap<Key, Value>();
+		if (this.root == null) {
+			return h2;
+		}
+		if (this.root.key.compareTo(x) > 0) {
+			h2.root = this.root;
+			this.root = null;
+			return h2;
+		}
+		ArrayList<PHNode> stack = new ArrayList<PHNode>();
+		stack.add(this.root);
+		while (stack.size() > 0) {
+			PHNode u = stack.remove(stack.size() - 1);
+			PHNode prev = null;
+			PHNode c = u.child;
+			while (c != null) {
+				PHNode next = c.sibling;
+				if (c.key.compareTo(x) > 0) {
+					if (prev == null) {
+						u.child = next;
+					} else {
+						prev.sibling = next;
+					}
+					c.sibling = null;
+					h2.root = link(h2.root, c);
+				} else {
+					stack.add(c);
+					prev = c;
+				}
+				c = next;
+			}
+		}
+		return h2;
+	}
+
+	/* Return the minimum key in the heap, which is located at the root node. */
+	public Key getMinKey() {
+		if (this.isEmpty()) {
+			return null;
+		}
+		return this.root.key;
+	}
+
+	/* Return the minimum key in the heap, and then remove it, merging the children of the root into the new root. */
+	public Value extractMin() throws Exception {
+		if (this.isEmpty()) {
+			throw new Exception("Empty heap");
+		}
+		Value v = this.root.value;
+		this.root = mergePairs(this.root.child);
+		return v;
+	}
+
+	/* Visit every key-value pair in the heap, in pre-order. */
+	public void forEach(BiConsumer<Key, Value> action) {
+		for (PHNode u : this.preorder()) {
+			action.accept(u.key, u.value);
+		}
+	}
+
+	/* Write the shape of the heap: whether it is empty, then its nodes in pre-order, each as which of its links are
+	present (1 for its leftmost child, 2 for its next sibling), its key and its value. */
+	public void writeShape(ShapeWriter<Key, Value> out) throws Exception {
+		out.putInt(this.root == null ? 0 : 1);
+		for (PHNode u : this.preorder()) {
+			out.putInt((u.child != null ? 1 : 0) | (u.sibling != null ? 2 : 0));
+			out.putKey(u.key);
+			out.putValue(u.value);
+		}
+	}
+
+	/* Rebuild the heap from a shape written by writeShape. Every node read fills the most recent place left open for a
+	link, the root's place first, and leaves open places for its own links, the child one on top. */
+	public void readShape(ShapeReader<Key, Value> in) throws Exception {
+		this.root = null;
+		if (in.getInt() == 0) {
+			return;
+		}
+		ArrayList<PHNode> parents = new ArrayList<PHNode>();
+		ArrayList<Integer> sides = new ArrayList<Integer>();
+		parents.add(null);
+		sides.add(0);
+		while (sides.size() > 0) {
+			PHNode parent = parents.remove(parents.size() - 1);
+			int side = sides.remove(sides.size() - 1);
+			int links = in.getInt();
+			Key x = in.getKey();
+			PHNode u = new PHNode(x, in.getValue());
+			if (side == 0) {
+				this.root = u;
+			} else if (side == 1) {
+				parent.child = u;
+			} else {
+				parent.sibling = u;
+			}
+			if ((links & 2) != 0) {
+				parents.add(u);
+				sides.add(2);
+			}
+			if ((links & 1) != 0) {
+				parents.add(u);
+				sides.add(1);
+			}
+		}
+	}
+
+	/* Return a list representation of the heap, in pre-order, where each node is followed by the number of its
+	children. */
+	public ArrayList<String> list() {
+		ArrayList<String> list = new ArrayList<String>();
+		for (PHNode u : this.preorder()) {
+			int children = 0;
+			for (PHNode c = u.child; c != null; c = c.sibling) {
+				children++;
+			}
+			list.add("(" + u.key + ", " + u.value + ") [" + children + "]");
+		}
+		return list;
+	}
+
+	/* Private helper method which lists the nodes of the heap in pre-order, using an explicit stack. */
+	private ArrayList<PHNode> preorder() {
+		ArrayList<PHNode> res = new ArrayList<PHNode>();
+		ArrayList<PHNode> stack = new ArrayList<PHNode>();
+		if (this.root != null) {
+			stack.add(this.root);
+		}
+		while (stack.size() > 0) {
+			PHNode u = stack.remove(stack.size() - 1);
+			res.add(u);
+			if (u.sibling != null) {
+				stack.add(u.sibling);
+			}
+			if (u.child != null) {
+				stack.add(u.child);
+			}
+		}
+		return res;
+	}
+}
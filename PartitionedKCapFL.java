@@ -0,0 +1,238 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/* Divide-and-conquer version of the k-capacitated facility locator. The points are split into disjoint spatial
+partitions, and an independent KCapFL extracts clusters from each partition in parallel. A cluster whose radius
+reaches across the boundary of its partition may not be what the sequential locator would have found, since points on
+the other side were not considered, so its points are set aside instead. Once every partition is done, a final
+sequential KCapFL over all the points set aside reconciles the clusters along the boundaries.
+
+The result is an approximation of the sequential output. The number of partitions and the tolerance of the boundary
+test trade its quality for speed, and divergence and cost measure how far it is from the exact output. */
+
+public class PartitionedKCapFL<LPoint extends LabeledPoint2D> {
+
+	/* The partitioned locator keeps the parameters of each KCapFL, the number of levels of splits (giving up to
+	2^levels partitions), the tolerance of the boundary test, the number of threads, and the number of clusters
+	extracted locally and during reconciliation by the last run. */
+
+	private int capacity;
+	private int bucketSize;
+	private Rectangle2D bbox;
+	private int levels;
+	private double tolerance;
+	private int threads;
+	private int localCount, reconciledCount;
+
+	/* Construct a partitioned locator. A cluster is kept by its partition if its center is at least tolerance times
+	its radius away from every side of the partition shared with another partition: a tolerance of 1 keeps only
+	clusters whose disk lies inside the partition, larger values are more cautious, and smaller values keep more
+	clusters locally, down to 0, which skips reconciliation altogether. */
+	public PartitionedKCapFL(int capacity, int bucketSize, Rectangle2D bbox, int levels, double tolerance, int threads)
+			throws Exception {
+		if (levels < 0 || levels > 20 || tolerance < 0 || threads < 1) {
+			throw new Exception("Invalid partitioning parameters");
+		}
+		this.capacity = capacity;
+		this.bucketSize = bucketSize;
+		this.bbox = bbox;
+		this.levels = levels;
+		this.tolerance = tolerance;
+		this.threads = threads;
+	}
+
+	/* Return the number of clusters kept by their partition in the last run. */
+	public int getLocalCount() {
+		return this.localCount;
+	}
+
+	/* Return the number of clusters extracted during reconciliation in the last run. */
+	public int getReconciledCount() {
+		return this.reconciledCount;
+	}
+
+	/* Return every cluster of the given points, sorted by squared radius, as the sequential locator would extract
+	them. The point set size must be a multiple of the capacity, as for KCapFL. */
+	public ArrayList<ArrayList<LPoint>> cluster(ArrayList<LPoint> pts) throws Exception {
+		if (pts.size() <= 0 || pts.size() % this.capacity != 0) {
+			throw new Exception("Invalid point set size");
+		}
+		ArrayList<ArrayList<LPoint>> parts = new ArrayList<ArrayList<LPoint>>();
+		ArrayList<Rectangle2D> regions = new ArrayList<Rectangle2D>();
+		this.partition(new ArrayList<LPoint>(pts), this.bbox, this.levels, parts, regions);
+
+		/* Extract the clusters of every partition in parallel. Each task returns the clusters it kept, followed by a
+		final list of the points it set aside. */
+
+		ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+		ArrayList<Future<ArrayList<ArrayList<LPoint>>>> tasks = new ArrayList<Future<ArrayList<ArrayList<LPoint>>>>();
+		try {
+			for (int i = 0; i < parts.size(); i++) {
+				final ArrayList<LPoint> part = parts.get(i);
+				final Rectangle2D region = regions.get(i);
+				tasks.add(executor.submit(new Callable<ArrayList<ArrayList<LPoint>>>() {
+					public ArrayList<ArrayList<LPoint>> call() throws Exception {
+						return extractLocal(part, region);
+					}
+				}));
+			}
+			ArrayList<ArrayList<LPoint>> res = new ArrayList<ArrayList<LPoint>>();
+			ArrayList<LPoint> pool = new ArrayList<LPoint>();
+			for (Future<ArrayList<ArrayList<LPoint>>> task : tasks) {
+				ArrayList<ArrayList<LPoint>> clusters = task.get();
+				pool.addAll(clusters.remove(clusters.size() - 1));
+				res.addAll(clusters);
+			}
+			this.localCount = res.size();
+
+			/* Reconcile the points set aside with a sequential locator. */
+
+			this.reconciledCount = 0;
+			if (pool.size() > 0) {
+				KCapFL<LPoint> kcfl = new KCapFL<LPoint>(this.capacity, this.bucketSize, this.bbox);
+				kcfl.build(pool);
+				ArrayList<LPoint> cluster = kcfl.extractCluster();
+				while (cluster != null) {
+					res.add(cluster);
+					this.reconciledCount++;
+					cluster = kcfl.extractCluster();
+				}
+			}
+			Collections.sort(res, new ByRadius());
+			return res;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/* Private recursive helper method which splits the points at the median along the wider dimension of their
+	bounding box, as XkdTree does, but with the split index rounded to a multiple of the capacity, so that every
+	partition can be handed to a KCapFL. Partitions and their regions are added to the given lists. */
+	private void partition(ArrayList<LPoint> pts, Rectangle2D region, int levels, ArrayList<ArrayList<LPoint>> parts,
+			ArrayList<Rectangle2D> regions) {
+		if (pts.size() == 0) {
+			return;
+		}
+		int m = (pts.size() / 2) - (pts.size() / 2) % this.capacity;
+		if (levels == 0 || m == 0) {
+			parts.add(pts);
+			regions.add(region);
+			return;
+		}
+		Rectangle2D rect = new Rectangle2D();
+		for (LPoint point : pts) {
+			rect.expand(point.getPoint2D());
+		}
+		int cutDim = 0;
+		if (rect.getWidth(0) < rect.getWidth(1)) {
+			cutDim = 1;
+		}
+		final int dim = cutDim;
+		Collections.sort(pts, new Comparator<LPoint>() {
+			public int compare(LPoint pt1, LPoint pt2) {
+				return Double.compare(pt1.get(dim), pt2.get(dim));
+			}
+		});
+		double cutVal = pts.get(m).get(cutDim);
+		this.partition(new ArrayList<LPoint>(pts.subList(0, m)), region.leftPart(cutDim, cutVal), levels - 1, parts,
+				regions);
+		this.partition(new ArrayList<LPoint>(pts.subList(m, pts.size())), region.rightPart(cutDim, cutVal), levels - 1,
+				parts, regions);
+	}
+
+	/* Private helper method which extracts every cluster of one partition, keeping those which pass the boundary test
+	and setting aside the points of the others. Returns the kept clusters followed by the list of points set aside. */
+	private ArrayList<ArrayList<LPoint>> extractLocal(ArrayList<LPoint> part, Rectangle2D region) throws Exception {
+		KCapFL<LPoint> kcfl = new KCapFL<LPoint>(this.capacity, this.bucketSize, region);
+		kcfl.build(part);
+		ArrayList<ArrayList<LPoint>> res = new ArrayList<ArrayList<LPoint>>();
+		ArrayList<LPoint> pool = new ArrayList<LPoint>();
+		ArrayList<LPoint> cluster = kcfl.extractCluster();
+		while (cluster != null) {
+			if (this.isInterior(cluster, region)) {
+				res.add(cluster);
+			} else {
+				pool.addAll(cluster);
+			}
+			cluster = kcfl.extractCluster();
+		}
+		res.add(pool);
+		return res;
+	}
+
+	/* Private helper method which checks whether a cluster's center is at least tolerance times its radius away from
+	every side of its region that is not also a side of the bounding box. */
+	private boolean isInterior(ArrayList<LPoint> cluster, Rectangle2D region) {
+		Point2D c = cluster.get(0).getPoint2D();
+		double reach = this.tolerance * Math.sqrt(c.distanceSq(cluster.get(cluster.size() - 1).getPoint2D()));
+		for (int dim = 0; dim < 2; dim++) {
+			double low = region.getLow().get(dim), high = region.getHigh().get(dim);
+			if (low > this.bbox.getLow().get(dim) && c.get(dim) - low < reach) {
+				return false;
+			}
+			if (high < this.bbox.getHigh().get(dim) && high - c.get(dim) < reach) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* Return the squared radius of a cluster: the squared distance from its center, which comes first, to its last
+	and farthest point. */
+	public static <LPoint extends LabeledPoint2D> double radiusSq(ArrayList<LPoint> cluster) {
+		return cluster.get(0).getPoint2D().distanceSq(cluster.get(cluster.size() - 1).getPoint2D());
+	}
+
+	/* Return the total cost of a set of clusters, the sum of their radii. Comparing the cost of the partitioned output
+	with that of the sequential output tells how much worse the approximation is. */
+	public static <LPoint extends LabeledPoint2D> double cost(ArrayList<ArrayList<LPoint>> clusters) {
+		double res = 0.0;
+		for (ArrayList<LPoint> cluster : clusters) {
+			res += Math.sqrt(radiusSq(cluster));
+		}
+		return res;
+	}
+
+	/* Return the fraction of clusters of the exact output which do not appear, with exactly the same points, in the
+	approximate output: 0 if both are the same set of clusters, and 1 if they share none. */
+	public static <LPoint extends LabeledPoint2D> double divergence(ArrayList<ArrayList<LPoint>> approx,
+			ArrayList<ArrayList<LPoint>> exact) {
+		if (exact.size() == 0) {
+			return 0.0;
+		}
+		IdentityHashMap<LPoint, Integer> owner = new IdentityHashMap<LPoint, Integer>();
+		for (int i = 0; i < exact.size(); i++) {
+			for (LPoint point : exact.get(i)) {
+				owner.put(point, i);
+			}
+		}
+		int matches = 0;
+		for (ArrayList<LPoint> cluster : approx) {
+			Integer i = owner.get(cluster.get(0));
+			boolean same = i != null && exact.get(i).size() == cluster.size();
+			for (LPoint point : cluster) {
+				if (!same) {
+					break;
+				}
+				same = i.equals(owner.get(point));
+			}
+			if (same) {
+				matches++;
+			}
+		}
+		return 1.0 - (double) matches / exact.size();
+	}
+
+	/* Comparator to sort clusters by squared radius. */
+	private class ByRadius implements Comparator<ArrayList<LPoint>> {
+		public int compare(ArrayList<LPoint> c1, ArrayList<LPoint> c2) {
+			return Double.compare(radiusSq(c1), radiusSq(c2));
+		}
+	}
+}
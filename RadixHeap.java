@@ -0,0 +1,294 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/* Implementation of a monotone radix heap in Java, containing key-value pairs whose keys are non-negative doubles. A
+radix heap is monotone: a key may never be inserted if it is smaller than the last key extracted. KCapFL satisfies
+this, since every key it inserts while extracting is the radius of a candidate which replaces the candidate just
+extracted, and a replacement is never smaller.
+
+The bit patterns of non-negative doubles, as given by Double.doubleToLongBits, are ordered like the doubles themselves.
+Entries are kept in 65 buckets, by the highest bit in which their key's bit pattern differs from that of the last key
+extracted: bucket 0 holds keys equal to it, and bucket i keys which first differ from it in bit i - 1. When bucket 0 is
+empty, the first nonempty bucket is emptied and its entries placed again relative to its minimum key, which becomes the
+new last key. Each entry can only move down, so it is moved at most 64 times. Buckets are arrays of bit patterns and
+values, rather than linked nodes. */
+
+public class RadixHeap<Value> implements MeldableHeap<Double, Value> {
+
+	private static final int BUCKETS = 65;
+
+	/* A bucket contains the bit patterns of its keys and their values, in parallel arrays. */
+
+	private static class Bucket {
+		long[] bits;
+		Object[] values;
+		int size;
+
+		Bucket() {
+			this.bits = new long[4];
+			this.values = new Object[4];
+			this.size = 0;
+		}
+
+		void add(long bits, Object value) {
+			if (this.size == this.bits.length) {
+				this.bits = Arrays.copyOf(this.bits, 2 * this.size);
+				this.values = Arrays.copyOf(this.values, 2 * this.size);
+			}
+			this.bits[this.size] = bits;
+			this.values[this.size] = value;
+			this.size++;
+		}
+	}
+
+	/* The heap keeps its buckets, the bit pattern of the last key extracted, and its number of entries. */
+
+	private Bucket[] buckets;
+	private long last;
+	private int size;
+
+	/* Construct a new, empty heap. */
+	public RadixHeap() {
+		this.clear();
+	}
+
+	/* A heap is empty if it has no entries. */
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/* Return the number of entries in the heap. */
+	public int size() {
+		return this.size;
+	}
+
+	/* "Reset" the current heap, which may then receive keys smaller than the ones it held. */
+	public void clear() {
+		this.buckets = new Bucket[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			this.buckets[i] = new Bucket();
+		}
+		this.last = 0;
+		this.size = 0;
+	}
+
+	/* Insert a new key-value pair into the heap, throwing an IllegalArgumentException if the key is negative, not a
+	number, or smaller than the last key extracted. */
+	public void insert(Double x, Value v) {
+		long bits = this.bitsOf(x);
+		if (bits < this.last) {
+			throw new IllegalArgumentException("Key smaller than last extracted key");
+		}
+		this.buckets[this.bucketOf(bits)].add(bits, v);
+		this.size++;
+	}
+
+	/* Merge two radix heaps. The last key extracted from the merged heap is the smaller of the two, so that every key
+	of both heaps is still allowed, and the buckets are rebuilt if it changed. The heap that was merged is discarded. */
+	public void mergeWith(RadixHeap<Value> h2) {
+		if (h2 == null || this == h2) {
+			return;
+		}
+		this.lower(h2.last);
+		for (Bucket b : h2.buckets) {
+			for (int j = 0; j < b.size; j++) {
+				this.buckets[this.bucketOf(b.bits[j])].add(b.bits[j], b.values[j]);
+			}
+		}
+		this.size += h2.size;
+		h2.clear();
+	}
+
+	/* Merge a heap of any kind. Another radix heap is merged as above; a heap of a different kind is drained into this
+	one, entry by entry, after lowering the last key extracted to its minimum key if needed. */
+	public void mergeWith(MeldableHeap<Double, Value> h2) throws Exception {
+		if (h2 == null || h2 instanceof RadixHeap) {
+			this.mergeWith((RadixHeap<Value>) h2);
+			return;
+		}
+		if (!h2.isEmpty()) {
+			this.lower(this.bitsOf(h2.getMinKey()));
+		}
+		while (!h2.isEmpty()) {
+			Double x = h2.getMinKey();
+			this.insert(x, h2.extractMin());
+		}
+	}
+
+	/* Split the current heap by a given key. The new heap has the same last key extracted, so every entry which moves
+	keeps its bucket. */
+	public RadixHeap<Value> split(Double x) {
+		RadixHeap<Value> h2 = new RadixHeap<Value>();
+		h2.last = this.last;
+		for (int i = 0; i < BUCKETS; i++) {
+			Bucket b = this.buckets[i];
+			int kept = 0;
+			for (int j = 0; j < b.size; j++) {
+				if (Double.longBitsToDouble(b.bits[j]) > x) {
+					h2.buckets[i].add(b.bits[j], b.values[j]);
+					h2.size++;
+				} else {
+					b.bits[kept] = b.bits[j];
+					b.values[kept] = b.values[j];
+					kept++;
+				}
+			}
+			for (int j = kept; j < b.size; j++) {
+				b.values[j] = null;
+			}
+			b.size = kept;
+		}
+		this.size -= h2.size;
+		return h2;
+	}
+
+	/* Return the minimum key in the heap, or null if it is empty. Peeking does not count as extracting: the buckets are
+	left as they are, and the minimum is found by scanning the first nonempty bucket, so that keys smaller than the one
+	returned may still be inserted. */
+	public Double getMinKey() {
+		if (this.isEmpty()) {
+			return null;
+		}
+		if (this.buckets[0].size > 0) {
+			return Double.longBitsToDouble(this.last);
+		}
+		int i = 1;
+		while (this.buckets[i].size == 0) {
+			i++;
+		}
+		Bucket b = this.buckets[i];
+		long min = b.bits[0];
+		for (int j = 1; j < b.size; j++) {
+			min = Math.min(min, b.bits[j]);
+		}
+		return Double.longBitsToDouble(min);
+	}
+
+	/* Return the value of the minimum key in the heap, and then remove it. */
+	public Value extractMin() throws Exception {
+		if (this.isEmpty()) {
+			throw new Exception("Empty heap");
+		}
+		this.pull();
+		Bucket b = this.buckets[0];
+		b.size--;
+		Value v = this.value(b, b.size);
+		b.values[b.size] = null;
+		this.size--;
+		return v;
+	}
+
+	/* Visit every key-value pair in the heap, bucket by bucket. */
+	public void forEach(BiConsumer<Double, Value> action) {
+		for (Bucket b : this.buckets) {
+			for (int j = 0; j < b.size; j++) {
+				action.accept(Double.longBitsToDouble(b.bits[j]), this.value(b, j));
+			}
+		}
+	}
+
+	/* Write the shape of the heap: the last key extracted, then every bucket, as its size followed by its entries in
+	order. */
+	public void writeShape(ShapeWriter<Double, Value> out) throws Exception {
+		out.putKey(Double.longBitsToDouble(this.last));
+		for (Bucket b : this.buckets) {
+			out.putInt(b.size);
+			for (int j = 0; j < b.size; j++) {
+				out.putKey(Double.longBitsToDouble(b.bits[j]));
+				out.putValue(this.value(b, j));
+			}
+		}
+	}
+
+	/* Rebuild the heap from a shape written by writeShape, putting every entry back in its bucket and position. */
+	public void readShape(ShapeReader<Double, Value> in) throws Exception {
+		this.clear();
+		this.last = Double.doubleToLongBits(in.getKey());
+		for (Bucket b : this.buckets) {
+			int n = in.getInt();
+			for (int j = 0; j < n; j++) {
+				long bits = Double.doubleToLongBits(in.getKey());
+				b.add(bits, in.getValue());
+			}
+			this.size += n;
+		}
+	}
+
+	/* Return a list representation of the heap, bucket by bucket, where each entry is followed by its bucket. */
+	public ArrayList<String> list() {
+		ArrayList<String> list = new ArrayList<String>();
+		for (int i = 0; i < BUCKETS; i++) {
+			Bucket b = this.buckets[i];
+			for (int j = 0; j < b.size; j++) {
+				list.add("(" + Double.longBitsToDouble(b.bits[j]) + ", " + b.values[j] + ") [" + i + "]");
+			}
+		}
+		return list;
+	}
+
+	/* Private helper method which makes sure bucket 0 holds the minimum key, if the heap is not empty, by emptying the
+	first nonempty bucket and placing its entries again relative to its minimum key. Those entries all share the bits
+	above the one that placed them in their bucket, so they all end up in lower buckets. */
+	private void pull() {
+		if (this.size == 0 || this.buckets[0].size > 0) {
+			return;
+		}
+		int i = 1;
+		while (this.buckets[i].size == 0) {
+			i++;
+		}
+		Bucket b = this.buckets[i];
+		long min = b.bits[0];
+		for (int j = 1; j < b.size; j++) {
+			min = Math.min(min, b.bits[j]);
+		}
+		this.last = min;
+		int n = b.size;
+		b.size = 0;
+		for (int j = 0; j < n; j++) {
+			this.buckets[this.bucketOf(b.bits[j])].add(b.bits[j], b.values[j]);
+			b.values[j] = null;
+		}
+	}
+
+	/* Private helper method which lowers the last key extracted to the given bit pattern, if it is smaller, and then
+	places every entry again, since their buckets depend on it. */
+	private void lower(long bits) {
+		if (bits >= this.last) {
+			return;
+		}
+		Bucket[] old = this.buckets;
+		int n = this.size;
+		this.clear();
+		this.last = bits;
+		this.size = n;
+		for (Bucket b : old) {
+			for (int j = 0; j < b.size; j++) {
+				this.buckets[this.bucketOf(b.bits[j])].add(b.bits[j], b.values[j]);
+			}
+		}
+	}
+
+	/* Private helper method which returns the bit pattern of a key, throwing an IllegalArgumentException if it is
+	negative or not a number. Negative zero is turned into zero, since its bit pattern has the sign bit set. */
+	private long bitsOf(Double x) {
+		double key = x + 0.0;
+		if (!(key >= 0)) {
+			throw new IllegalArgumentException("Invalid key");
+		}
+		return Double.doubleToLongBits(key);
+	}
+
+	/* Private helper method which returns the bucket of a key's bit pattern. */
+	private int bucketOf(long bits) {
+		return 64 - Long.numberOfLeadingZeros(bits ^ this.last);
+	}
+
+	/* Private helper method which reads a value of a bucket. Values are stored as Object, since generic arrays cannot
+	be created, but only values of type Value are ever stored. */
+	@SuppressWarnings("unchecked")
+	private Value value(Bucket b, int idx) {
+		return (Value) b.values[idx];
+	}
+}
@@ -0,0 +1,11 @@
+/* Source of the shape of a data structure, used to restore it: returns the keys, values and integers written to a
+ShapeWriter, in the same order. */
+
+public interface ShapeReader<Key, Value> {
+
+	int getInt() throws Exception;
+
+	Key getKey() throws Exception;
+
+	Value getValue() throws Exception;
+}
@@ -0,0 +1,13 @@
+/* Receiver of the shape of a data structure, used to save it: its keys, its values, and the integers describing how
+they are linked, in an order of the structure's choosing. A structure which writes its shape to a ShapeWriter can read
+it back from a ShapeReader returning the same items in the same order, and is then identical to the structure written,
+down to the order in which it breaks ties between equal keys. */
+
+public interface ShapeWriter<Key, Value> {
+
+	void putInt(int v) throws Exception;
+
+	void putKey(Key key) throws Exception;
+
+	void putValue(Value value) throws Exception;
+}
@@ -0,0 +1,253 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/* Implementation of an extended kd-tree partitioned into shards. The bounding box is split into regions by a fixed
+number of levels of cuts, like the top levels of a kd-tree, and the points of each region are held by their own shard,
+which may live in another process. A coordinator routes updates to the one shard whose region holds the point, and
+answers k nearest neighbor queries by asking only the shards whose region could hold a point closer than the current
+kth nearest one. */
+
+public class ShardedXkdTree<LPoint extends LabeledPoint2D> {
+
+	/* Factory used to create the shard for each region, which decides where and how the shard is served. */
+
+	public interface ShardFactory<LPoint extends LabeledPoint2D> {
+		XkdShard<LPoint> create(Rectangle2D region) throws Exception;
+	}
+
+	/* The cuts are stored as an implicit complete binary tree: cut i has children 2i + 1 and 2i + 2, and the 2^levels
+	leaves, in order, are the shards. A point whose coordinate equals a cutting value belongs to the right side, as in
+	XkdTree. The coordinator also keeps the bounding box, the number of points, and an optional executor used to query
+	shards in parallel. */
+
+	private int levels;
+	private int[] cutDims;
+	private double[] cutVals;
+	private ArrayList<XkdShard<LPoint>> shards;
+	private Rectangle2D bbox;
+	private int size;
+	private ExecutorService executor;
+
+	/* Construct a sharded tree over the given bounding box with 2^levels shards, each one an extended kd-tree with the
+	given bucket size in this JVM. Regions are split in half along their wider dimension. */
+	public ShardedXkdTree(final int bucketSize, Rectangle2D bbox, int levels) throws Exception {
+		this(bbox, levels, null, new ShardFactory<LPoint>() {
+			public XkdShard<LPoint> create(Rectangle2D region) {
+				return new LocalXkdShard<LPoint>(bucketSize, region);
+			}
+		});
+	}
+
+	/* Construct a sharded tree over the given bounding box with 2^levels shards created by the given factory. If a
+	sample of the points is given, each region is split at the median of the sample points it contains, along the
+	wider dimension of their bounding box, so that shards receive similar numbers of points; otherwise, or once a
+	region holds fewer than two sample points, it is split in half along its wider dimension. */
+	public ShardedXkdTree(Rectangle2D bbox, int levels, ArrayList<LPoint> sample, ShardFactory<LPoint> factory)
+			throws Exception {
+		if (levels < 0 || levels > 20) {
+			throw new Exception("Invalid number of levels");
+		}
+		this.levels = levels;
+		this.cutDims = new int[(1 << levels) - 1];
+		this.cutVals = new double[(1 << levels) - 1];
+		this.shards = new ArrayList<XkdShard<LPoint>>();
+		this.bbox = bbox;
+		this.size = 0;
+		this.executor = null;
+		ArrayList<LPoint> pts = new ArrayList<LPoint>();
+		if (sample != null) {
+			pts.addAll(sample);
+		}
+		this.split(0, bbox, pts, factory);
+	}
+
+	/* Private recursive helper method which chooses cut i for the given region and sample points, or creates a shard
+	once the region is a leaf. Shards are created from left to right, so they end up in the order of the leaves. */
+	private void split(int i, Rectangle2D region, ArrayList<LPoint> pts, ShardFactory<LPoint> factory)
+			throws Exception {
+		if (i >= this.cutDims.length) {
+			this.shards.add(factory.create(region));
+			return;
+		}
+		int cutDim = 0;
+		double cutVal;
+		if (pts.size() >= 2) {
+			Rectangle2D rect = new Rectangle2D();
+			for (LPoint point : pts) {
+				rect.expand(point.getPoint2D());
+			}
+			if (rect.getWidth(0) < rect.getWidth(1)) {
+				cutDim = 1;
+			}
+			final int dim = cutDim;
+			Collections.sort(pts, new Comparator<LPoint>() {
+				public int compare(LPoint pt1, LPoint pt2) {
+					return Double.compare(pt1.get(dim), pt2.get(dim));
+				}
+			});
+			cutVal = pts.get(pts.size() / 2).get(cutDim);
+		} else {
+			if (region.getWidth(0) < region.getWidth(1)) {
+				cutDim = 1;
+			}
+			cutVal = (region.getLow().get(cutDim) + region.getHigh().get(cutDim)) / 2;
+		}
+		this.cutDims[i] = cutDim;
+		this.cutVals[i] = cutVal;
+		ArrayList<LPoint> left = new ArrayList<LPoint>(), right = new ArrayList<LPoint>();
+		for (LPoint point : pts) {
+			if (point.get(cutDim) < cutVal) {
+				left.add(point);
+			} else {
+				right.add(point);
+			}
+		}
+		this.split(2 * i + 1, region.leftPart(cutDim, cutVal), left, factory);
+		this.split(2 * i + 2, region.rightPart(cutDim, cutVal), right, factory);
+	}
+
+	/* Set the executor used to query shards in parallel, or null to query them one at a time. */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/* Return the number of shards. */
+	public int shardCount() {
+		return this.shards.size();
+	}
+
+	/* Return the shard with the given index, in left-to-right order. */
+	public XkdShard<LPoint> getShard(int i) {
+		return this.shards.get(i);
+	}
+
+	/* Return the number of points contained within the tree. */
+	public int size() {
+		return this.size;
+	}
+
+	/* Clear every shard. */
+	public void clear() throws Exception {
+		for (XkdShard<LPoint> shard : this.shards) {
+			shard.clear();
+		}
+		this.size = 0;
+	}
+
+	/* Return the provided point, if it is found in the tree, or null, if it is not. */
+	public LPoint find(Point2D q) throws Exception {
+		return this.shards.get(this.route(q)).find(q);
+	}
+
+	/* Insert the provided point into the tree, throwing an exception if it is outside of the bounding box. */
+	public void insert(LPoint pt) throws Exception {
+		ArrayList<LPoint> lst = new ArrayList<LPoint>();
+		lst.add(pt);
+		this.bulkInsert(lst);
+	}
+
+	/* Insert the provided list of points, throwing an exception if a point is outside of the bounding box. Points are
+	grouped by shard, so that each shard receives a single bulk insertion. */
+	public void bulkInsert(ArrayList<LPoint> pts) throws Exception {
+		ArrayList<ArrayList<LPoint>> groups = new ArrayList<ArrayList<LPoint>>();
+		for (int i = 0; i < this.shards.size(); i++) {
+			groups.add(new ArrayList<LPoint>());
+		}
+		for (LPoint point : pts) {
+			if (point.getX() < this.bbox.getLow().getX() || point.getX() > this.bbox.getHigh().getX()
+					|| point.getY() < this.bbox.getLow().getY() || point.getY() > this.bbox.getHigh().getY()) {
+				throw new Exception("Attempt to insert a point outside bounding box");
+			}
+			groups.get(this.route(point.getPoint2D())).add(point);
+		}
+		for (int i = 0; i < this.shards.size(); i++) {
+			if (groups.get(i).size() > 0) {
+				this.shards.get(i).bulkInsert(groups.get(i));
+				this.size += groups.get(i).size();
+			}
+		}
+	}
+
+	/* Deletes the given point from the tree, throwing an exception if is not already in the tree. */
+	public void delete(Point2D pt) throws Exception {
+		this.shards.get(this.route(pt)).delete(pt);
+		this.size--;
+	}
+
+	/* Returns the point closest to the given point, or null if the tree is empty. */
+	public LPoint nearestNeighbor(Point2D center) throws Exception {
+		ArrayList<LPoint> res = this.kNearestNeighbor(center, 1);
+		if (res.size() == 0) {
+			return null;
+		}
+		return res.get(0);
+	}
+
+	/* Return a list of k points closest to the point center. The shard whose region is closest to the center (the
+	one containing it, if any) is asked first. Its answer bounds the kth nearest distance, and every other shard whose
+	region is farther away than that bound is skipped. The remaining shards are asked in parallel if there is an
+	executor, or otherwise one at a time from nearest to farthest, tightening the bound after each answer, and all
+	answers are merged in a MinK. */
+	public ArrayList<LPoint> kNearestNeighbor(final Point2D center, final int k) throws Exception {
+		final MinK<Double, LPoint> minK = new MinK<Double, LPoint>(k, Double.MAX_VALUE);
+		if (this.size == 0) {
+			return minK.list();
+		}
+		ArrayList<XkdShard<LPoint>> order = new ArrayList<XkdShard<LPoint>>(this.shards);
+		Collections.sort(order, new Comparator<XkdShard<LPoint>>() {
+			public int compare(XkdShard<LPoint> s1, XkdShard<LPoint> s2) {
+				return Double.compare(s1.getRegion().distanceSq(center), s2.getRegion().distanceSq(center));
+			}
+		});
+		this.merge(minK, center, order.get(0).kNearestNeighbor(center, k));
+		if (this.executor == null) {
+			for (int i = 1; i < order.size(); i++) {
+				if (order.get(i).getRegion().distanceSq(center) > minK.getKth()) {
+					break;
+				}
+				this.merge(minK, center, order.get(i).kNearestNeighbor(center, k));
+			}
+		} else {
+			ArrayList<Future<ArrayList<LPoint>>> answers = new ArrayList<Future<ArrayList<LPoint>>>();
+			for (int i = 1; i < order.size(); i++) {
+				if (order.get(i).getRegion().distanceSq(center) > minK.getKth()) {
+					break;
+				}
+				final XkdShard<LPoint> shard = order.get(i);
+				answers.add(this.executor.submit(new Callable<ArrayList<LPoint>>() {
+					public ArrayList<LPoint> call() throws Exception {
+						return shard.kNearestNeighbor(center, k);
+					}
+				}));
+			}
+			for (Future<ArrayList<LPoint>> answer : answers) {
+				this.merge(minK, center, answer.get());
+			}
+		}
+		return minK.list();
+	}
+
+	/* Private helper method which adds a shard's answer to the MinK. */
+	private void merge(MinK<Double, LPoint> minK, Point2D center, ArrayList<LPoint> pts) {
+		for (LPoint point : pts) {
+			minK.add(point.getPoint2D().distanceSq(center), point);
+		}
+	}
+
+	/* Private helper method which returns the index of the shard whose region holds the given point. */
+	private int route(Point2D q) {
+		int i = 0;
+		for (int level = 0; level < this.levels; level++) {
+			if (q.get(this.cutDims[i]) < this.cutVals[i]) {
+				i = 2 * i + 1;
+			} else {
+				i = 2 * i + 2;
+			}
+		}
+		return i - this.cutDims.length;
+	}
+}
@@ -0,0 +1,136 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/* Work-stealing deque, after Chase and Lev. A single owner thread pushes and pops elements at the bottom, like a
+stack, while any number of thief threads steal elements from the top. Neither end takes a lock: the owner only
+competes with thieves, through a compare-and-set on the top index, when a single element is left. This is meant for
+parallel tree walks, where each worker keeps its own deque of subtrees still to visit and idle workers steal the
+oldest (and usually largest) subtrees of busy ones. */
+
+public class WorkStealingDeque<T> {
+
+	/* Elements live in a circular array whose size is a power of two, indexed by the ever-increasing top and bottom
+	indices modulo its size. When it fills up, the owner copies the live elements into an array twice as large; old
+	arrays are left untouched, so a thief still reading one sees valid elements. */
+
+	private static class CircularArray<T> {
+		final AtomicReferenceArray<T> items;
+		final int mask;
+
+		CircularArray(int size) {
+			this.items = new AtomicReferenceArray<T>(size);
+			this.mask = size - 1;
+		}
+
+		int size() {
+			return this.mask + 1;
+		}
+
+		T get(long i) {
+			return this.items.get((int) (i & this.mask));
+		}
+
+		void set(long i, T x) {
+			this.items.set((int) (i & this.mask), x);
+		}
+
+		CircularArray<T> grow(long bottom, long top) {
+			CircularArray<T> res = new CircularArray<T>(2 * this.size());
+			for (long i = top; i < bottom; i++) {
+				res.set(i, this.get(i));
+			}
+			return res;
+		}
+	}
+
+	/* The deque holds the index of its top element, the index one past its bottom element, and its current array. The
+	elements are those with indices in [top, bottom). */
+
+	private final AtomicLong top;
+	private volatile long bottom;
+	private volatile CircularArray<T> array;
+
+	/* Construct a new, empty deque whose array initially holds the given number of elements, rounded up to a power of
+	two. */
+	public WorkStealingDeque(int initialCapacity) throws Exception {
+		if (initialCapacity < 1) {
+			throw new Exception("Invalid capacity");
+		}
+		int size = 2;
+		while (size < initialCapacity) {
+			size *= 2;
+		}
+		this.top = new AtomicLong(0);
+		this.bottom = 0;
+		this.array = new CircularArray<T>(size);
+	}
+
+	/* Push a new element onto the bottom of the deque. Only the owner may call this. Elements may not be null, since
+	null is how pop and steal report that they found nothing. */
+	public void push(T x) {
+		if (x == null) {
+			throw new NullPointerException("Push of null element");
+		}
+		long b = this.bottom, t = this.top.get();
+		CircularArray<T> a = this.array;
+		if (b - t >= a.size() - 1) {
+			a = a.grow(b, t);
+			this.array = a;
+		}
+		a.set(b, x);
+		this.bottom = b + 1;
+	}
+
+	/* Pop the bottom element off the deque, or return null if it is empty. Only the owner may call this. The owner
+	first claims the bottom slot by moving bottom up, then checks whether a thief may have taken it too, which can only
+	happen if it was the last element. */
+	public T pop() {
+		long b = this.bottom - 1;
+		CircularArray<T> a = this.array;
+		this.bottom = b;
+		long t = this.top.get();
+		if (t > b) {
+			this.bottom = b + 1;
+			return null;
+		}
+		T x = a.get(b);
+		if (t == b) {
+			if (!this.top.compareAndSet(t, t + 1)) {
+				x = null;
+			}
+			this.bottom = b + 1;
+			return x;
+		}
+
+		/* More than one element was left, so no thief can be reading this slot; clear it so the element can be
+		collected once it is done with. */
+
+		a.set(b, null);
+		return x;
+	}
+
+	/* Steal the top element of the deque, or return null if it is empty or another thread took the element first.
+	Any thread may call this. */
+	public T steal() {
+		long t = this.top.get(), b = this.bottom;
+		if (t >= b) {
+			return null;
+		}
+		CircularArray<T> a = this.array;
+		T x = a.get(t);
+		if (!this.top.compareAndSet(t, t + 1)) {
+			return null;
+		}
+		return x;
+	}
+
+	/* A deque is empty if its top has caught up with its bottom. */
+	public boolean isEmpty() {
+		return this.top.get() >= this.bottom;
+	}
+
+	/* Return the size of the deque. While other threads are stealing, this is only an estimate. */
+	public int size() {
+		return (int) Math.max(0, this.bottom - this.top.get());
+	}
+}
@@ -0,0 +1,29 @@
+import java.util.ArrayList;
+
+/* A shard of a ShardedXkdTree: an extended kd-tree holding the points of one region of the bounding box, which may be
+served by another process. Every operation may therefore fail with an exception, whether the tree rejects it or the
+transport to the shard breaks down. */
+
+public interface XkdShard<LPoint extends LabeledPoint2D> {
+
+	/* Return the region of the bounding box this shard holds the points of. */
+	Rectangle2D getRegion();
+
+	/* Return the number of points held by the shard. */
+	int size() throws Exception;
+
+	/* Remove every point from the shard. */
+	void clear() throws Exception;
+
+	/* Return the provided point, if it is held by the shard, or null, if it is not. */
+	LPoint find(Point2D q) throws Exception;
+
+	/* Insert the given points, all of which lie in the shard's region. */
+	void bulkInsert(ArrayList<LPoint> pts) throws Exception;
+
+	/* Delete the given point, throwing an exception if the shard does not hold it. */
+	void delete(Point2D pt) throws Exception;
+
+	/* Return a list of the k points of the shard closest to the point center, sorted by distance. */
+	ArrayList<LPoint> kNearestNeighbor(Point2D center, int k) throws Exception;
+}
@@ -1,6 +1,7 @@
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 
 /* Implementation of extended kd-tree containing points of two dimensions. */
 
@@ -20,11 +21,20 @@ public class XkdTree<LPoint extends LabeledPoint2D> {
 		tree. */
 
 		abstract LPoint find(Point2D pt);
+		abstract void findAll(Point2D pt, ArrayList<LPoint> res);
+		abstract int count(Point2D pt);
+		abstract boolean contains(LPoint pt);
 		abstract Node bulkInsert(ArrayList<LPoint> pts, Rectangle2D bbox, int bucketSize) throws Exception;
 		abstract ArrayList<String> list(ArrayList<String> lst);
 		abstract LPoint nearestNeighbor(Point2D center, Rectangle2D cell, LPoint best);
-		abstract Node deleteHelper(Point2D pt);
-		abstract void kNNHelper(Point2D q, Rectangle2D cell, MinK<Double, LPoint> minK);
+		abstract Node deleteHelper(Point2D pt, LPoint which);
+		abstract void kNNHelper(Point2D q, Rectangle2D cell, MinK<Double, LPoint> minK, QueryCounters counters);
+		abstract void kNNBeyondHelper(Point2D q, Rectangle2D cell, double innerSq, IdentityHashMap<LPoint, Boolean> known,
+				MinK<Double, LPoint> minK, QueryCounters counters);
+		abstract int depth();
+		abstract void leafSizes(ArrayList<Integer> sizes);
+		abstract void points(ArrayList<LPoint> pts);
+		abstract void writeShape(ShapeWriter<Double, LPoint> out) throws Exception;
 	}
 	
 	/* An internal node contains cutting dimension, which can be 0 or 1 (split based on X or Y coordinate,
@@ -45,20 +55,39 @@ public class XkdTree<LPoint extends LabeledPoint2D> {
 		
 		/* When finding a point, an internal node looks at the point's cutting value, and makes a recursive call to
 		either the left or right subtree based on the cutting dimension. If the point's value is less than the current
-		node's cutting value, call to the left subtree, and otherwise, to the right subtree. However, if it is equal,
-		the point may live in either the left OR right subtree, so we must handle that case as well. */
+		node's cutting value, call to the left subtree, and otherwise, to the right subtree. A point equal to the
+		cutting value always lives in the right subtree, since insertion routes it there, so a single path is
+		followed, even through duplicated or co-linear points. */
 		LPoint find(Point2D q) {
-			if ((this.cutDim == 0 && q.getX() < this.cutVal) || (this.cutDim == 1 && q.getY() < this.cutVal)) {
+			if (q.get(this.cutDim) < this.cutVal) {
 				return this.left.find(q);
-			} else if ((this.cutDim == 0 && q.getX() > this.cutVal) || (this.cutDim == 1 && q.getY() > this.cutVal)) {
-				return this.right.find(q);
+			}
+			return this.right.find(q);
+		}
+		
+		/* Finding every copy of a point follows the same single path, since all copies live in the same external
+		node. */
+		void findAll(Point2D q, ArrayList<LPoint> res) {
+			if (q.get(this.cutDim) < this.cutVal) {
+				this.left.findAll(q, res);
 			} else {
-				LPoint res = this.left.find(q);
-				if (res == null) {
-					res = this.right.find(q);
-				}
-				return res;
+				this.right.findAll(q, res);
+			}
+		}
+		
+		/* Counting the copies of a point, or looking for a labeled point itself, follows the same single path. */
+		int count(Point2D q) {
+			if (q.get(this.cutDim) < this.cutVal) {
+				return this.left.count(q);
+			}
+			return this.right.count(q);
+		}
+		
+		boolean contains(LPoint pt) {
+			if (pt.get(this.cutDim) < this.cutVal) {
+				return this.left.contains(pt);
 			}
+			return this.right.contains(pt);
 		}
 		
 		/* When inserting many points at once, we must keep in mind that the kd-tree has a bucket size, or maximum
@@ -143,16 +172,15 @@ public class XkdTree<LPoint extends LabeledPoint2D> {
 		
 		/* When deleting a point from a kd-tree, we need to modify nodes in case deletion results in an external node
 		being empty. If this is the case, then that empty node is unlinked from the tree, with its grandparent pointing
-		to its sibling. */
-		Node deleteHelper(Point2D pt) {
-			if (this.left.find(pt) != null) {
-				this.left = this.left.deleteHelper(pt);
+		to its sibling. The point is searched for along the same single path as in find. */
+		Node deleteHelper(Point2D pt, LPoint which) {
+			if (pt.get(this.cutDim) < this.cutVal) {
+				this.left = this.left.deleteHelper(pt, which);
 				if (this.left == null) {
 					return this.right;
 				}
-			}
-			if (this.right.find(pt) != null) {
-				this.right = this.right.deleteHelper(pt);
+			} else {
+				this.right = this.right.deleteHelper(pt, which);
 				if (this.right == null) {
 					return this.left;
 				}
@@ -163,8 +191,10 @@ public class XkdTree<LPoint extends LabeledPoint2D> {
 		/* Calculating k nearest neighbors is conceptually similar to the single nearest neighbor operation above,
 		except that we must keep track of several "best" or "nearest" points in a max heap, which we implement using
 		the MinK data structure. */
-		void kNNHelper(Point2D q, Rectangle2D cell, MinK<Double, LPoint> minK) {
+		void kNNHelper(Point2D q, Rectangle2D cell, MinK<Double, LPoint> minK, QueryCounters counters) {
+			counters.nodesVisited++;
 			if (cell.distanceSq(q) > minK.getKth()) {
+				counters.nodesPruned++;
 				return;
 			}
 			
@@ -172,23 +202,76 @@ public class XkdTree<LPoint extends LabeledPoint2D> {
 			Rectangle2D rightCell = cell.rightPart(this.cutDim, this.cutVal);
 			
 			if (q.get(this.cutDim) < this.cutVal) {
-				this.left.kNNHelper(q, leftCell, minK);
-				this.right.kNNHelper(q, rightCell, minK);
+				this.left.kNNHelper(q, leftCell, minK, counters);
+				this.right.kNNHelper(q, rightCell, minK, counters);
 			} else {
-				this.right.kNNHelper(q, rightCell, minK);
-				this.left.kNNHelper(q, leftCell, minK);
+				this.right.kNNHelper(q, rightCell, minK, counters);
+				this.left.kNNHelper(q, leftCell, minK, counters);
 			}
 		}
+	
+		/* Continuing a k nearest neighbors query beyond a known radius works like kNNHelper, except that a cell lying
+		entirely within the known radius is pruned as well, since every point in it is already known. */
+		void kNNBeyondHelper(Point2D q, Rectangle2D cell, double innerSq, IdentityHashMap<LPoint, Boolean> known,
+				MinK<Double, LPoint> minK, QueryCounters counters) {
+			counters.nodesVisited++;
+			if (cell.distanceSq(q) > minK.getKth() || maxDistanceSq(cell, q) < innerSq) {
+				counters.nodesPruned++;
+				return;
+			}
+			
+			Rectangle2D leftCell = cell.leftPart(this.cutDim, this.cutVal);
+			Rectangle2D rightCell = cell.rightPart(this.cutDim, this.cutVal);
+			
+			if (q.get(this.cutDim) < this.cutVal) {
+				this.left.kNNBeyondHelper(q, leftCell, innerSq, known, minK, counters);
+				this.right.kNNBeyondHelper(q, rightCell, innerSq, known, minK, counters);
+			} else {
+				this.right.kNNBeyondHelper(q, rightCell, innerSq, known, minK, counters);
+				this.left.kNNBeyondHelper(q, leftCell, innerSq, known, minK, counters);
+			}
+		}
+		
+		/* The depth of an internal node is one more than the depth of its deeper subtree. */
+		int depth() {
+			return 1 + Math.max(this.left.depth(), this.right.depth());
+		}
+		
+		/* Collect the sizes of the external nodes, from left to right. */
+		void leafSizes(ArrayList<Integer> sizes) {
+			this.left.leafSizes(sizes);
+			this.right.leafSizes(sizes);
+		}
+		
+		/* Collect the points of the external nodes, from left to right. */
+		void points(ArrayList<LPoint> pts) {
+			this.left.points(pts);
+			this.right.points(pts);
+		}
+		
+		/* An internal node writes its cutting dimension and value, then its left and right subtrees. */
+		void writeShape(ShapeWriter<Double, LPoint> out) throws Exception {
+			out.putInt(this.cutDim);
+			out.putKey(this.cutVal);
+			this.left.writeShape(out);
+			this.right.writeShape(out);
+		}
 	}
 	
-	/* An external node contains a list of points. */
+	/* An external node contains a list of points. An external node holding more points than the bucket size, which
+	only happens when all of its points are copies of the same point, also keeps the index of each point in the list,
+	so that a given copy can be found and deleted without scanning every other copy. The index is dropped as soon as
+	points are added to the node, or it shrinks back to the bucket size, and is only used while it covers every point
+	of the node. */
 
 	private class ExternalNode extends Node {
 		ArrayList<LPoint> points;
+		IdentityHashMap<LPoint, Integer> index;
 
 		ExternalNode() {
 			super();
 			this.points = new ArrayList<LPoint>();
+			this.index = null;
 		}
 		
 		/* Returns the point if it is contained within the current node, or null if it is not found. */
@@ -203,12 +286,62 @@ public class XkdTree<LPoint extends LabeledPoint2D> {
 			return res;
 		}
 		
+		/* Adds every point of the external node equal to the given point. */
+		void findAll(Point2D pt, ArrayList<LPoint> res) {
+			for (LPoint point : this.points) {
+				if (point.getPoint2D().equals(pt)) {
+					res.add(point);
+				}
+			}
+		}
+		
+		/* Returns whether the node keeps an index covering all of its points. */
+		private boolean indexed() {
+			return this.index != null && this.index.size() == this.points.size();
+		}
+		
+		/* Returns the number of points of the external node equal to the given point. If the node keeps an index, all
+		of its points are equal, so only the first one needs to be compared. */
+		int count(Point2D pt) {
+			if (this.indexed()) {
+				if (this.points.size() > 0 && this.points.get(0).getPoint2D().equals(pt)) {
+					return this.points.size();
+				}
+				return 0;
+			}
+			int res = 0;
+			for (LPoint point : this.points) {
+				if (point.getPoint2D().equals(pt)) {
+					res++;
+				}
+			}
+			return res;
+		}
+		
+		/* Returns whether the given labeled point itself is in the external node. */
+		boolean contains(LPoint pt) {
+			if (this.indexed()) {
+				return this.index.containsKey(pt);
+			}
+			for (LPoint point : this.points) {
+				if (point == pt) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
 		/* Inserts several points into the external node. If there are more nodes than allowed as specified by the
 		kd-tree's bucket size, split the list of points into two halves based on the width of their distribution, set
 		the current node to be an internal node, with its left and right subtrees being new external nodes, and
-		recursively call the insertion operation on the left and right subtrees. */
+		recursively call the insertion operation on the left and right subtrees. An internal node passes an empty list
+		to a subtree receiving no points, which leaves the external node as it is. */
 		Node bulkInsert(ArrayList<LPoint> pts, Rectangle2D bbox, int bucketSize) throws Exception {
+			if (pts.size() == 0) {
+				return this;
+			}
 			this.points.addAll(pts);
+			this.index = null;
 			if (this.points.size() > bucketSize) {
 				Collections.sort(this.points, new ByXThenY());
 				Rectangle2D rect = new Rectangle2D();
@@ -232,21 +365,65 @@ public class XkdTree<LPoint extends LabeledPoint2D> {
 						cutValue = (this.points.get(m - 1).getY() + this.points.get(m).getY()) / 2;
 					}
 				}
-				ArrayList<LPoint> L = new ArrayList<LPoint>(this.points.subList(0, m));
-				ArrayList<LPoint> R = new ArrayList<LPoint>(this.points.subList(m, this.points.size()));
+
+				/* Points are split by value rather than by index: those whose coordinate is less than the cutting value
+				go left, and all others, including those equal to it, go right, so that every copy of a point ends up in
+				the same external node. If copies of the median make that split one-sided, the cut is moved to the
+				boundary between distinct values nearest to the median. If there is no such boundary, the cutting
+				dimension being the wider one, every point is identical, and the node keeps all of them, however many
+				there are, rather than being split forever. */
+
+				int splitIndex = 0;
+				while (splitIndex < this.points.size() && this.points.get(splitIndex).get(cutDim) < cutValue) {
+					splitIndex++;
+				}
+				if (splitIndex == 0 || splitIndex == this.points.size()) {
+					splitIndex = this.boundary(cutDim, m);
+					if (splitIndex < 0) {
+						this.index = new IdentityHashMap<LPoint, Integer>();
+						for (int i = 0; i < this.points.size(); i++) {
+							this.index.put(this.points.get(i), i);
+						}
+						return this;
+					}
+					cutValue = this.points.get(splitIndex).get(cutDim);
+				}
+				ArrayList<LPoint> L = new ArrayList<LPoint>(this.points.subList(0, splitIndex));
+				ArrayList<LPoint> R = new ArrayList<LPoint>(this.points.subList(splitIndex, this.points.size()));
 				Node left = new ExternalNode(), right = new ExternalNode();
 				Node newNode = new InternalNode(cutDim, cutValue, left.bulkInsert(L, bbox, bucketSize), right.bulkInsert(R, bbox, bucketSize));
 				return newNode;
 			} else {
+
+				/* If spatial ordering is enabled, a leaf keeps its points sorted along the Morton curve, so that
+				points that are close together in space are also close together in the list. */
+
+				if (mortonLeaves) {
+					mortonOrder(this.points);
+				}
 				return this;
 			}
 		}
 	
+		/* Return the index nearest to m at which the points, sorted along the given dimension, go from one value to a
+		greater one, or -1 if they all have the same value. */
+		private int boundary(int dim, int m) {
+			for (int d = 0; d <= this.points.size(); d++) {
+				for (int i = m - d; i <= m + d; i += Math.max(1, 2 * d)) {
+					if (i >= 1 && i < this.points.size() && this.points.get(i - 1).get(dim) < this.points.get(i).get(dim)) {
+						return i;
+					}
+				}
+			}
+			return -1;
+		}
+	
 		/* Return a list representation of the kd-tree. */
 		ArrayList<String> list(ArrayList<String> lst) {
-			Collections.sort(this.points, new ByLabel());
+			ArrayList<LPoint> sorted = new ArrayList<LPoint>(this.points);
+			Collections.sort(sorted, new ByLabel());
 			String res = "[";
-			for (LPoint point : this.points) {
+			for (LPoint point : sorted) {
 				res += " {" + point.toString() + "}";
 			}
 			if (res.equals("[ ")) {
@@ -274,13 +451,36 @@ public class XkdTree<LPoint extends LabeledPoint2D> {
 			return best;
 		}
 		
-		/* Delete a point from an external node by removing it from the list of points. If the current external node is
-		emptied, return a null reference so that its parent, the internal node, can be restructured accordingly. */
-		Node deleteHelper(Point2D pt) {
-			for (LPoint point : this.points) {
-				if (point.getPoint2D().equals(pt)) {
-					this.points.remove(point);
-					break;
+		/* Delete a point from an external node by removing it from the list of points: the given labeled point itself,
+		if one is given, and otherwise the last point equal to the given point. If the node keeps an index, the point
+		is found through it, and the last point of the list is moved into its place, since the order of identical
+		points does not matter. The index is dropped once the node is back within the bucket size. If the current
+		external node is emptied, return a null reference so that its parent, the internal node, can be restructured
+		accordingly. */
+		Node deleteHelper(Point2D pt, LPoint which) {
+			if (this.indexed()) {
+				int i = this.points.size() - 1;
+				if (which != null) {
+					i = this.index.get(which);
+				}
+				LPoint last = this.points.remove(this.points.size() - 1);
+				this.index.remove(last);
+				if (i < this.points.size()) {
+					this.index.remove(this.points.get(i));
+					this.points.set(i, last);
+					this.index.put(last, i);
+				}
+				if (this.points.size() <= bucketSize) {
+					this.index = null;
+				}
+			} else {
+				this.index = null;
+				for (int i = this.points.size() - 1; i >= 0; i--) {
+					LPoint point = this.points.get(i);
+					if (point == which || (which == null && point.getPoint2D().equals(pt))) {
+						this.points.remove(i);
+						break;
+					}
 				}
 			}
 			if (this.points.size() == 0) {
@@ -292,11 +492,55 @@ public class XkdTree<LPoint extends LabeledPoint2D> {
 		/* When calculating k nearest neighbors of a point, an external node adds all of its points to the MinK data
 		structure. MinK will handle the operation of calculating whether any of the new points are eligible to be
 		considered k nearest. */
-		void kNNHelper(Point2D q, Rectangle2D cell, MinK<Double, LPoint> minK) {
+		void kNNHelper(Point2D q, Rectangle2D cell, MinK<Double, LPoint> minK, QueryCounters counters) {
+			counters.nodesVisited++;
+			counters.leavesScanned++;
+			counters.distanceEvaluations += this.points.size();
 			for (LPoint point : this.points) {
 				minK.add(point.getPoint2D().distanceSq(q), point);
 			}
 		}
+		
+		/* When continuing a k nearest neighbors query beyond a known radius, an external node adds only the points
+		which are not already known: those strictly within the radius are known by definition, and those exactly on it
+		are looked up. */
+		void kNNBeyondHelper(Point2D q, Rectangle2D cell, double innerSq, IdentityHashMap<LPoint, Boolean> known,
+				MinK<Double, LPoint> minK, QueryCounters counters) {
+			counters.nodesVisited++;
+			counters.leavesScanned++;
+			counters.distanceEvaluations += this.points.size();
+			for (LPoint point : this.points) {
+				double d = point.getPoint2D().distanceSq(q);
+				if (d > innerSq || (d == innerSq && !known.containsKey(point))) {
+					minK.add(d, point);
+				}
+			}
+		}
+		
+		/* An external node has depth 0. */
+		int depth() {
+			return 0;
+		}
+		
+		/* An external node contributes its own size. */
+		void leafSizes(ArrayList<Integer> sizes) {
+			sizes.add(this.points.size());
+		}
+		
+		/* An external node contributes its own points, in the order it stores them. */
+		void points(ArrayList<LPoint> pts) {
+			pts.addAll(this.points);
+		}
+		
+		/* An external node writes -1, which no cutting dimension can be, then its points in the order it stores
+		them. */
+		void writeShape(ShapeWriter<Double, LPoint> out) throws Exception {
+			out.putInt(-1);
+			out.putInt(this.points.size());
+			for (LPoint point : this.points) {
+				out.putValue(point);
+			}
+		}
 	}
 	
 	/* Comparator to sort a list of points based on its X-coordinate. */
@@ -352,6 +596,22 @@ public class XkdTree<LPoint extends LabeledPoint2D> {
 	private int size;
 	private int bucketSize;
 	private Rectangle2D bbox;
+	private boolean mortonLeaves;
+	
+	/* The metrics listener, if there is one. */
+
+	private MetricsListener listener;
+	
+	/* Counters for a single k nearest neighbors query, reported to the metrics listener, if there is one, once the
+	query completes. Each query has its own counters, so that queries may run concurrently. */
+
+	private static class QueryCounters {
+		int nodesVisited, leavesScanned, distanceEvaluations, nodesPruned;
+	}
+	
+	/* Cache of k nearest neighbors results, if one has been set, which is notified of every change to the tree. */
+
+	private KNNCache<LPoint> cache;
 
 	/* Constructor for an extended kd-tree creates a new kd-tree with a single empty external node, and sets its bucket
 	size and bounding box to the provided values. */
@@ -360,12 +620,50 @@ public class XkdTree<LPoint extends LabeledPoint2D> {
 		this.size = 0;
 		this.bucketSize = bucketSize;
 		this.bbox = bbox;
+		this.mortonLeaves = false;
+		this.listener = null;
+		this.cache = null;
+	}
+	
+	/* Set the listener which receives metrics about queries and the structure of the tree, or null to stop reporting
+	metrics. */
+	public void setListener(MetricsListener listener) {
+		this.listener = listener;
+	}
+	
+	/* Set the cache which answers repeated k nearest neighbors queries, or null to stop caching. The cache is emptied
+	and laid over the bounding box of the tree. */
+	public void setCache(KNNCache<LPoint> cache) {
+		if (cache != null) {
+			cache.attach(this.bbox);
+		}
+		this.cache = cache;
+	}
+	
+	/* Report the depth of the tree and the sizes of its external nodes to the metrics listener, if there is one. This
+	walks the whole tree, so it is only done on request. */
+	public void reportStructure() {
+		if (this.listener != null) {
+			ArrayList<Integer> sizes = new ArrayList<Integer>();
+			this.root.leafSizes(sizes);
+			this.listener.treeStructure(this.root.depth(), sizes);
+		}
+	}
+	
+	/* Enable or disable spatial ordering of external nodes. When enabled, each external node created or refilled by
+	an insertion stores its points in Morton (Z-order) curve order rather than in whatever order the last sort left
+	them. */
+	public void setSpatialOrder(boolean spatialOrder) {
+		this.mortonLeaves = spatialOrder;
 	}
 	
 	/* Clear the extended kd-tree by removing all its contents and returning it to its default state. */
 	public void clear() {
 		this.root = new ExternalNode();
 		this.size = 0;
+		if (this.cache != null) {
+			this.cache.clear();
+		}
 	}
 	
 	/* Return the number of points contained within the kd-tree. */
@@ -373,6 +671,52 @@ public class XkdTree<LPoint extends LabeledPoint2D> {
 		return this.size;
 	}
 	
+	/* Return the bucket size of the kd-tree. */
+	public int getBucketSize() {
+		return this.bucketSize;
+	}
+	
+	/* Return the bounding box of the kd-tree. */
+	public Rectangle2D getBoundingBox() {
+		return this.bbox;
+	}
+	
+	/* Write the shape of the kd-tree, its nodes in pre-order, so that readShape can rebuild exactly the same tree, with
+	the same cuts and the same points in the same order in every external node, without changing it. */
+	public void writeShape(ShapeWriter<Double, LPoint> out) throws Exception {
+		this.root.writeShape(out);
+	}
+	
+	/* Replace the contents of the kd-tree with a shape written by writeShape on a tree with the same bucket size. An
+	external node holding more points than the bucket size, all copies of one point, gets its index back. */
+	public void readShape(ShapeReader<Double, LPoint> in) throws Exception {
+		this.clear();
+		this.root = this.readNode(in);
+	}
+	
+	/* Private recursive helper method which reads a node written by writeShape, and its subtrees. */
+	private Node readNode(ShapeReader<Double, LPoint> in) throws Exception {
+		int cutDim = in.getInt();
+		if (cutDim >= 0) {
+			double cutVal = in.getKey();
+			Node left = this.readNode(in);
+			return new InternalNode(cutDim, cutVal, left, this.readNode(in));
+		}
+		ExternalNode node = new ExternalNode();
+		int n = in.getInt();
+		for (int i = 0; i < n; i++) {
+			node.points.add(in.getValue());
+		}
+		if (n > this.bucketSize) {
+			node.index = new IdentityHashMap<LPoint, Integer>();
+			for (int i = 0; i < n; i++) {
+				node.index.put(node.points.get(i), i);
+			}
+		}
+		this.size += n;
+		return node;
+	}
+	
 	/* Return the provided point, if it is found in the kd-tree, or null, if it is not. */
 	public LPoint find(Point2D q) {
 		return root.find(q);
@@ -399,12 +743,22 @@ public class XkdTree<LPoint extends LabeledPoint2D> {
 				throw new Exception("Attempt to insert a point outside bounding box");
 			}
 			this.root = this.root.bulkInsert(pts, this.bbox, this.bucketSize);
+			if (this.cache != null) {
+				this.cache.invalidate(pts);
+			}
 
 			/* Remember to increment the size property of the tree after successful insertion. */
 			this.size += pts.size();
 		}
 	}
 	
+	/* Return every point in the kd-tree, external node by external node, from left to right. */
+	public ArrayList<LPoint> points() {
+		ArrayList<LPoint> res = new ArrayList<LPoint>();
+		this.root.points(res);
+		return res;
+	}
+	
 	/* Return a list representation of the kd-tree. */
 	public ArrayList<String> list() {
 		ArrayList<String> res = new ArrayList<String>();
@@ -419,36 +773,227 @@ public class XkdTree<LPoint extends LabeledPoint2D> {
 		return this.root.nearestNeighbor(center, bbox, null);
 	}
 
-	/* Deletes the given point from the tree, throwing an exception if is not already in the tree. */
+	/* Return every point of the tree equal to the given point, or an empty list if there is none. */
+	public ArrayList<LPoint> findAll(Point2D q) {
+		ArrayList<LPoint> res = new ArrayList<LPoint>();
+		this.root.findAll(q, res);
+		return res;
+	}
+	
+	/* Return the number of points of the tree equal to the given point. */
+	public int count(Point2D q) {
+		return this.root.count(q);
+	}
+	
+	/* Return whether the given labeled point itself, rather than just a point with its coordinates, is in the
+	tree. */
+	public boolean contains(LPoint pt) {
+		return this.root.contains(pt);
+	}
+
+	/* Deletes the given point from the tree, throwing an exception if is not already in the tree. If the tree holds
+	several copies of the point, only one of them is deleted. */
 	public void delete(Point2D pt) throws Exception {
-		if (this.find(pt) == null) {
+		LPoint point = this.find(pt);
+		if (point == null) {
+			throw new Exception("Deletion of nonexistent point");
+		}
+		this.deleteHelper(pt, null, point);
+	}
+	
+	/* Deletes the given labeled point itself from the tree, leaving any other copy of its coordinates in place, and
+	throwing an exception if it is not in the tree. */
+	public void remove(LPoint pt) throws Exception {
+		if (!this.contains(pt)) {
 			throw new Exception("Deletion of nonexistent point");
+		}
+		this.deleteHelper(pt.getPoint2D(), pt, pt);
+	}
+	
+	/* Private helper method which deletes a point known to be in the tree, given one of its copies in the tree, which
+	is passed to the cache, if there is one. */
+	private void deleteHelper(Point2D pt, LPoint which, LPoint copy) {
+		if (this.cache != null) {
+			ArrayList<LPoint> lst = new ArrayList<LPoint>();
+			lst.add(copy);
+			this.cache.invalidate(lst);
+		}
+		if (this.size == 1) {
+			this.root = new ExternalNode();
 		} else {
-			if (this.size == 1) {
-				this.root = new ExternalNode();
-			} else {
-				this.root = this.root.deleteHelper(pt);
-			}
-
-			/* Remember to decrement the size property of the tree after successful deletion. */
-			this.size--;
+			this.root = this.root.deleteHelper(pt, which);
 		}
+
+		/* Remember to decrement the size property of the tree after successful deletion. */
+		this.size--;
 	}
 	
 	/* Return a list of k points closest to the point center given in the arguments with the help of the MinK data
-	structure. */
+	structure. If a cache has been set, the result is looked up in it first, under the key of the center snapped to its
+	grid, and stored in it afterwards. The search itself always uses the exact center. */
 	public ArrayList<LPoint> kNearestNeighbor(Point2D center, int k) {
+		if (this.cache != null) {
+			ArrayList<LPoint> res = this.cache.get(center, k);
+			if (res != null) {
+				return res;
+			}
+		}
 		ArrayList<LPoint> res = new ArrayList<LPoint>();
 		if (this.size > 0) {
 			MinK<Double, LPoint> kNN = new MinK<Double, LPoint>(k, Double.MAX_VALUE);
-			this.kNNHelper(center, this.bbox, kNN);
+			QueryCounters counters = new QueryCounters();
+			this.kNNHelper(center, this.bbox, kNN, counters);
 			res = kNN.list();
+			this.reportQuery(counters);
+		}
+		if (this.cache != null) {
+			this.cache.put(center, k, res);
+		}
+		return res;
+	}
+	
+	/* Return a list of k points closest to the point center, given the points of the tree known to be within a
+	radius of it. This is meant for recomputing a k nearest neighbors query after points have been deleted: the
+	survivors of the previous answer are still the nearest points, and only the points beyond its radius need to be
+	searched for the rest. The survivors must be sorted by distance, and must include every point of the tree strictly
+	within the radius, which holds as long as no point has been inserted since the previous answer. */
+	public ArrayList<LPoint> kNearestNeighbor(Point2D center, int k, ArrayList<LPoint> survivors, double radiusSq) {
+		ArrayList<LPoint> res = new ArrayList<LPoint>();
+		for (int i = 0; i < survivors.size() && i < k; i++) {
+			res.add(survivors.get(i));
+		}
+		if (res.size() < k && this.size > res.size()) {
+			IdentityHashMap<LPoint, Boolean> known = new IdentityHashMap<LPoint, Boolean>();
+			for (LPoint point : res) {
+				known.put(point, true);
+			}
+			MinK<Double, LPoint> kNN = new MinK<Double, LPoint>(k - res.size(), Double.MAX_VALUE);
+			QueryCounters counters = new QueryCounters();
+			this.root.kNNBeyondHelper(center, this.bbox, radiusSq, known, kNN, counters);
+			res.addAll(kNN.list());
+			this.reportQuery(counters);
+		}
+		return res;
+	}
+	
+	/* Private helper function which returns the squared distance from a point to the farthest corner of a cell. */
+	private static double maxDistanceSq(Rectangle2D cell, Point2D q) {
+		double dx = Math.max(Math.abs(q.getX() - cell.getLow().getX()), Math.abs(q.getX() - cell.getHigh().getX()));
+		double dy = Math.max(Math.abs(q.getY() - cell.getLow().getY()), Math.abs(q.getY() - cell.getHigh().getY()));
+		return dx * dx + dy * dy;
+	}
+	
+	/* Private helper function which reports the counters of a completed k nearest neighbors query to the metrics
+	listener, if there is one. */
+	private void reportQuery(QueryCounters counters) {
+		if (this.listener != null) {
+			this.listener.kNearestNeighbor(counters.nodesVisited, counters.leavesScanned, counters.distanceEvaluations,
+					counters.nodesPruned);
+		}
+	}
+	
+	/* Answer a batch of k nearest neighbor queries. Queries are scheduled in Morton curve order, so consecutive
+	queries walk mostly the same paths of the tree, but the results are returned in the order of the given centers. */
+	public ArrayList<ArrayList<LPoint>> kNearestNeighbor(ArrayList<Point2D> centers, int k) {
+		ArrayList<ArrayList<LPoint>> res = new ArrayList<ArrayList<LPoint>>();
+		for (int i = 0; i < centers.size(); i++) {
+			res.add(null);
+		}
+		long[] codes = new long[centers.size()];
+		for (int i = 0; i < codes.length; i++) {
+			codes[i] = this.mortonCode(centers.get(i));
+		}
+		for (int i : mortonPermutation(codes)) {
+			res.set(i, this.kNearestNeighbor(centers.get(i), k));
 		}
 		return res;
 	}
 	
+	/* Reorder the given list of points in place along the Morton curve of the bounding box, and return the
+	permutation that was applied: after the call, the point at index i used to be at index perm[i]. Callers that
+	allocate their points in this order before building the tree get leaves and subtrees whose points sit next to each
+	other on the heap, and can use the permutation to map positions back to their original IDs. */
+	public int[] spatialOrder(ArrayList<LPoint> pts) {
+		return this.mortonOrder(pts);
+	}
+	
+	/* Private helper function which reorders a list of points in place along the Morton curve and returns the
+	permutation applied. Leaves use it directly, without boxing, and without copying the coordinates of their points. */
+	private int[] mortonOrder(ArrayList<LPoint> pts) {
+		long[] codes = new long[pts.size()];
+		for (int i = 0; i < codes.length; i++) {
+			codes[i] = this.mortonCode(pts.get(i).getPoint2D());
+		}
+		int[] perm = mortonPermutation(codes);
+		ArrayList<LPoint> ordered = new ArrayList<LPoint>(pts.size());
+		for (int i : perm) {
+			ordered.add(pts.get(i));
+		}
+		for (int i = 0; i < perm.length; i++) {
+			pts.set(i, ordered.get(i));
+		}
+		return perm;
+	}
+	
+	/* Private helper function which returns the indices of the given Morton codes in sorted order. The indices are
+	merge sorted as a primitive array, so ties keep their original relative order. */
+	private static int[] mortonPermutation(long[] codes) {
+		int[] perm = new int[codes.length], temp = new int[codes.length];
+		for (int i = 0; i < perm.length; i++) {
+			perm[i] = i;
+		}
+		for (int width = 1; width < perm.length; width *= 2) {
+			for (int low = 0; low < perm.length - width; low += 2 * width) {
+				int mid = low + width, high = Math.min(low + 2 * width, perm.length);
+				int i = low, j = mid, t = low;
+				while (i < mid && j < high) {
+					temp[t++] = codes[perm[j]] < codes[perm[i]] ? perm[j++] : perm[i++];
+				}
+				while (i < mid) {
+					temp[t++] = perm[i++];
+				}
+				while (j < high) {
+					temp[t++] = perm[j++];
+				}
+				System.arraycopy(temp, low, perm, low, high - low);
+			}
+		}
+		return perm;
+	}
+	
+	/* Private helper function which computes the Morton code of a point: each coordinate is scaled to a 31-bit
+	integer relative to the bounding box, and the bits of the two integers are interleaved, X first. */
+	private long mortonCode(Point2D pt) {
+		return spreadBits(this.quantize(pt.getX(), 0)) | (spreadBits(this.quantize(pt.getY(), 1)) << 1);
+	}
+	
+	/* Private helper function which scales a coordinate along the given dimension to the range [0, 2^31 - 1]. Points
+	outside the bounding box are clamped to its sides. */
+	private long quantize(double v, int dim) {
+		double low = this.bbox.getLow().get(dim), width = this.bbox.getWidth(dim);
+		if (width <= 0 || v <= low) {
+			return 0;
+		}
+		double t = (v - low) / width;
+		if (t >= 1.0) {
+			return Integer.MAX_VALUE;
+		}
+		return (long) (t * Integer.MAX_VALUE);
+	}
+	
+	/* Private helper function which spreads the low 32 bits of a value out to the even bit positions of a long. */
+	private static long spreadBits(long v) {
+		v &= 0xFFFFFFFFL;
+		v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+		v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+		v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		v = (v | (v << 2)) & 0x3333333333333333L;
+		v = (v | (v << 1)) & 0x5555555555555555L;
+		return v;
+	}
+	
 	/* Private helper function which invokes the k nearest neighbors function. */
-	private void kNNHelper(Point2D q, Rectangle2D cell, MinK<Double, LPoint> minK) {
-		this.root.kNNHelper(q, cell, minK);
+	private void kNNHelper(Point2D q, Rectangle2D cell, MinK<Double, LPoint> minK, QueryCounters counters) {
+		this.root.kNNHelper(q, cell, minK, counters);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,126 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/* Minimal benchmark harness. Each case is warmed up, then timed over a fixed number of iterations, with its setup run
+untimed before every iteration so that destructive operations can be measured on fresh inputs. Next to the time per
+operation, every case reports the bytes allocated per operation and the number and duration of garbage collections
+during the measured iterations. */
+
+public class Bench {
+
+	/* A benchmark case has an untimed setup, run before every iteration, and a timed body. The body returns its
+	result so that the JIT compiler cannot discard the work. */
+
+	public interface Case {
+		void setup() throws Exception;
+		Object run() throws Exception;
+	}
+
+	/* Warmup and measurement iteration counts, an optional filter on case names, and a sink for results. */
+
+	private int warmups;
+	private int iterations;
+	private String filter;
+	private static volatile Object sink;
+
+	public Bench(int warmups, int iterations, String filter) {
+		this.warmups = warmups;
+		this.iterations = iterations;
+		this.filter = filter;
+	}
+
+	/* Print the header of the results table. */
+	public void header() {
+		System.out.println(String.format("%-64s %14s %14s %14s %8s %10s", "case", "median ns/op", "min ns/op",
+				"bytes/op", "gc", "gc ms"));
+	}
+
+	/* Measure a case which performs ops operations per run, and print one line of results, unless the case's name
+	does not contain the filter. */
+	public void measure(String name, int ops, Case c) throws Exception {
+		if (this.filter != null && !name.contains(this.filter)) {
+			return;
+		}
+		for (int i = 0; i < this.warmups; i++) {
+			c.setup();
+			sink = c.run();
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long[] times = new long[this.iterations];
+		long bytes = 0, gcCount = 0, gcTime = 0;
+		for (int i = 0; i < this.iterations; i++) {
+			c.setup();
+			long gcCount0 = gcCount(), gcTime0 = gcTime();
+			long bytes0 = threads.getThreadAllocatedBytes(threadId);
+			long t0 = System.nanoTime();
+			sink = c.run();
+			times[i] = System.nanoTime() - t0;
+			bytes += threads.getThreadAllocatedBytes(threadId) - bytes0;
+			gcCount += gcCount() - gcCount0;
+			gcTime += gcTime() - gcTime0;
+		}
+		Arrays.sort(times);
+		System.out.println(String.format("%-64s %14.1f %14.1f %14d %8d %10d", name,
+				times[times.length / 2] / (double) ops, times[0] / (double) ops,
+				bytes / ((long) this.iterations * ops), gcCount, gcTime));
+	}
+
+	/* Private helper methods which sum the collection counts and times over all garbage collectors. */
+
+	private static long gcCount() {
+		long res = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			res += Math.max(0, gc.getCollectionCount());
+		}
+		return res;
+	}
+
+	private static long gcTime() {
+		long res = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			res += Math.max(0, gc.getCollectionTime());
+		}
+		return res;
+	}
+
+	/* Parameter values shared by the benchmarks. */
+
+	public static final int[] SIZES = { 1000, 100000 };
+	public static final int[] KS = { 1, 8, 32 };
+	public static final int[] BUCKET_SIZES = { 1, 8, 32 };
+	public static final String[] DISTRIBUTIONS = { BenchData.UNIFORM, BenchData.CLUSTERED, BenchData.DUPLICATES };
+
+	/* Run every benchmark. The optional first argument restricts the run to cases whose name contains it, and the
+	optional second and third arguments override the warmup and measurement iteration counts. */
+	public static void main(String[] args) throws Exception {
+		String filter = null;
+		int warmups = 3, iterations = 5;
+		if (args.length > 0) {
+			filter = args[0];
+		}
+		if (args.length > 2) {
+			warmups = Integer.parseInt(args[1]);
+			iterations = Integer.parseInt(args[2]);
+		}
+		Bench bench = new Bench(warmups, iterations, filter);
+		bench.header();
+		XkdTreeBenchmark.run(bench);
+		MinKBenchmark.run(bench);
+		HeapBenchmark.run(bench);
+		KCapFLBenchmark.run(bench);
+		StackContentionBenchmark.run(bench);
+	}
+
+	/* Return a name for a case from its benchmark and parameter values. */
+	public static String name(String benchmark, Object... params) {
+		ArrayList<String> parts = new ArrayList<String>();
+		parts.add(benchmark);
+		for (Object param : params) {
+			parts.add(String.valueOf(param));
+		}
+		return String.join(" ", parts);
+	}
+}
@@ -0,0 +1,91 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+/* Seeded data generators for the benchmarks. The same distribution, size and seed always produce the same points, so
+results can be compared across runs and across changes. All points lie in the unit square. */
+
+public class BenchData {
+
+	/* Uniform points are spread evenly over the unit square. Clustered points are drawn from a few tight Gaussian
+	blobs, redrawing any which fall outside the square. Duplicate-heavy points are snapped to a coarse grid, so that
+	most coordinates occur many times, like GPS data snapped to a road grid. */
+
+	public static final String UNIFORM = "uniform";
+	public static final String CLUSTERED = "clustered";
+	public static final String DUPLICATES = "duplicates";
+
+	private static final int CLUSTERS = 16;
+	private static final double CLUSTER_SPREAD = 0.01;
+	private static final int GRID = 64;
+
+	/* Return the bounding box shared by every generated data set. */
+	public static Rectangle2D bbox() {
+		return new Rectangle2D(new Point2D(0.0, 0.0), new Point2D(1.0, 1.0));
+	}
+
+	/* Return n points from the given distribution. */
+	public static ArrayList<BenchPoint> points(String distribution, int n, long seed) {
+		Random random = new Random(seed);
+		double[] centers = new double[2 * CLUSTERS];
+		for (int i = 0; i < centers.length; i++) {
+			centers[i] = random.nextDouble();
+		}
+		ArrayList<BenchPoint> res = new ArrayList<BenchPoint>();
+		for (int i = 0; i < n; i++) {
+			double x, y;
+			if (distribution.equals(UNIFORM)) {
+				x = random.nextDouble();
+				y = random.nextDouble();
+			} else if (distribution.equals(CLUSTERED)) {
+				int c = random.nextInt(CLUSTERS);
+				do {
+					x = centers[2 * c] + random.nextGaussian() * CLUSTER_SPREAD;
+					y = centers[2 * c + 1] + random.nextGaussian() * CLUSTER_SPREAD;
+				} while (x < 0.0 || x > 1.0 || y < 0.0 || y > 1.0);
+			} else if (distribution.equals(DUPLICATES)) {
+				x = random.nextInt(GRID) / (double) GRID;
+				y = random.nextInt(GRID) / (double) GRID;
+			} else {
+				throw new IllegalArgumentException("Unknown distribution: " + distribution);
+			}
+			res.add(new BenchPoint("p" + i, x, y));
+		}
+		return res;
+	}
+
+	/* Return n query points spread uniformly over the unit square. */
+	public static ArrayList<Point2D> queries(int n, long seed) {
+		Random random = new Random(seed);
+		ArrayList<Point2D> res = new ArrayList<Point2D>();
+		for (int i = 0; i < n; i++) {
+			res.add(new Point2D(random.nextDouble(), random.nextDouble()));
+		}
+		return res;
+	}
+
+	/* Return n query points, most of which repeat a few hot locations, like requests for popular pickup points: each
+	query is one of the given number of hot locations with probability 0.9, and a uniform point otherwise. */
+	public static ArrayList<Point2D> hotQueries(int n, int hot, long seed) {
+		Random random = new Random(seed);
+		ArrayList<Point2D> hotSpots = queries(hot, seed + 1);
+		ArrayList<Point2D> res = new ArrayList<Point2D>();
+		for (int i = 0; i < n; i++) {
+			if (random.nextDouble() < 0.9) {
+				res.add(hotSpots.get(random.nextInt(hot)));
+			} else {
+				res.add(new Point2D(random.nextDouble(), random.nextDouble()));
+			}
+		}
+		return res;
+	}
+
+	/* Return n keys drawn uniformly from [0, 1). */
+	public static double[] keys(int n, long seed) {
+		Random random = new Random(seed);
+		double[] res = new double[n];
+		for (int i = 0; i < n; i++) {
+			res[i] = random.nextDouble();
+		}
+		return res;
+	}
+}
@@ -0,0 +1,35 @@
+/* Labeled point used by the benchmarks. Labels are just the index of the point in the generated data set. */
+
+public class BenchPoint implements LabeledPoint2D {
+	private String label;
+	private Point2D point;
+
+	public BenchPoint(String label, double x, double y) {
+		this.label = label;
+		this.point = new Point2D(x, y);
+	}
+
+	public double getX() {
+		return this.point.getX();
+	}
+
+	public double getY() {
+		return this.point.getY();
+	}
+
+	public double get(int i) {
+		return this.point.get(i);
+	}
+
+	public Point2D getPoint2D() {
+		return this.point;
+	}
+
+	public String getLabel() {
+		return this.label;
+	}
+
+	public String toString() {
+		return this.label + ": " + this.point;
+	}
+}
@@ -0,0 +1,76 @@
+/* Head-to-head benchmarks for the MeldableHeap implementations: merging two heaps of n keys each, splitting a heap of
+n keys at its median key, and a KCapFL-like workload which extracts every key of a heap of n keys, reinserting a larger
+key after every other extraction. Merging and splitting consume their input, so the heaps are rebuilt, untimed, before
+every run. */
+
+public class HeapBenchmark {
+
+	public static final String[] HEAPS = { "leftist", "pairing", "radix" };
+
+	/* Return a new empty heap of the given kind. */
+	public static <Value> MeldableHeap<Double, Value> create(String heap) {
+		if (heap.equals("pairing")) {
+			return new PairingHeap<Double, Value>();
+		}
+		if (heap.equals("radix")) {
+			return new RadixHeap<Value>();
+		}
+		return new LeftistHeap<Double, Value>();
+	}
+
+	public static void run(Bench bench) throws Exception {
+		for (final String heap : HEAPS) {
+			for (final int n : Bench.SIZES) {
+				final double[] keys = BenchData.keys(2 * n, 42);
+				bench.measure(Bench.name("Heap.merge", "heap=" + heap, "n=" + n), 1, new HeapCase(heap, keys, n) {
+					public Object run() throws Exception {
+						this.h1.mergeWith(this.h2);
+						return this.h1;
+					}
+				});
+				bench.measure(Bench.name("Heap.split", "heap=" + heap, "n=" + n), 1, new HeapCase(heap, keys, n) {
+					public Object run() {
+						return this.h1.split(0.5);
+					}
+				});
+				bench.measure(Bench.name("Heap.extractAll", "heap=" + heap, "n=" + n), n + (n + 1) / 2,
+						new HeapCase(heap, keys, n) {
+					public Object run() throws Exception {
+						int res = 0;
+						for (int i = 0; !this.h1.isEmpty(); i++) {
+							double x = this.h1.getMinKey();
+							res += this.h1.extractMin();
+							if (i % 2 == 0 && i < this.n) {
+								this.h1.insert(x + this.keys[this.n + i], i);
+							}
+						}
+						return res;
+					}
+				});
+			}
+		}
+	}
+
+	/* Case whose setup builds two heaps of the given kind with n keys each. */
+	private abstract static class HeapCase implements Bench.Case {
+		String heap;
+		double[] keys;
+		int n;
+		MeldableHeap<Double, Integer> h1, h2;
+
+		HeapCase(String heap, double[] keys, int n) {
+			this.heap = heap;
+			this.keys = keys;
+			this.n = n;
+		}
+
+		public void setup() {
+			this.h1 = HeapBenchmark.create(this.heap);
+			this.h2 = HeapBenchmark.create(this.heap);
+			for (int i = 0; i < this.n; i++) {
+				this.h1.insert(this.keys[i], i);
+				this.h2.insert(this.keys[this.n + i], i);
+			}
+		}
+	}
+}
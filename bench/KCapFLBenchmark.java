@@ -0,0 +1,45 @@
+import java.util.ArrayList;
+import java.util.function.Supplier;
+
+/* End-to-end benchmark for KCapFL, with each kind of heap: building the locator over n points and extracting every
+cluster. n is rounded down to a multiple of the capacity, since build rejects any other size. */
+
+public class KCapFLBenchmark {
+
+	private static final int[] CAPACITIES = { 2, 8, 32 };
+	private static final int BUCKET_SIZE = 8;
+
+	public static void run(Bench bench) throws Exception {
+		for (final String distribution : Bench.DISTRIBUTIONS) {
+			for (final int n : Bench.SIZES) {
+				for (final int capacity : CAPACITIES) {
+					final ArrayList<BenchPoint> points = BenchData.points(distribution, n - n % capacity, 42);
+					for (final String heap : HeapBenchmark.HEAPS) {
+						bench.measure(Bench.name("KCapFL.buildAndExtract", distribution, "n=" + n, "capacity=" + capacity,
+								"heap=" + heap), 1, new Bench.Case() {
+							public void setup() {
+							}
+
+							public Object run() throws Exception {
+								KCapFL<BenchPoint> kcfl = new KCapFL<BenchPoint>(capacity, BUCKET_SIZE, BenchData.bbox(),
+										new Supplier<MeldableHeap<Double, ArrayList<BenchPoint>>>() {
+									public MeldableHeap<Double, ArrayList<BenchPoint>> get() {
+										return HeapBenchmark.create(heap);
+									}
+								});
+								kcfl.build(new ArrayList<BenchPoint>(points));
+								int res = 0;
+								ArrayList<BenchPoint> cluster = kcfl.extractCluster();
+								while (cluster != null) {
+									res += cluster.size();
+									cluster = kcfl.extractCluster();
+								}
+								return res;
+							}
+						});
+					}
+				}
+			}
+		}
+	}
+}
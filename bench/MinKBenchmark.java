@@ -0,0 +1,25 @@
+/* Benchmark for MinK: adding n random keys to a MinK of size k, as a k nearest neighbor query scanning n points
+would. */
+
+public class MinKBenchmark {
+
+	public static void run(Bench bench) throws Exception {
+		for (final int n : Bench.SIZES) {
+			final double[] keys = BenchData.keys(n, 42);
+			for (final int k : Bench.KS) {
+				bench.measure(Bench.name("MinK.add", "n=" + n, "k=" + k), n, new Bench.Case() {
+					public void setup() {
+					}
+
+					public Object run() {
+						MinK<Double, Integer> minK = new MinK<Double, Integer>(k, Double.MAX_VALUE);
+						for (int i = 0; i < keys.length; i++) {
+							minK.add(keys[i], i);
+						}
+						return minK;
+					}
+				});
+			}
+		}
+	}
+}
@@ -0,0 +1,226 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Contention benchmarks for ConcurrentStack and WorkStealingDeque, against ConcurrentLinkedDeque and an ArrayDeque
+guarded by a lock. Each run starts its own threads, so the allocation figures only cover the thread that starts
+them.
+
+In the stack scenario, every thread pushes and then pops an element, over and over. In the stealing scenario, one
+owner pushes batches of elements and pops half of each batch back, while every other thread steals from the far end,
+as idle workers of a parallel tree walk would. */
+
+public class StackContentionBenchmark {
+
+	private static final int OPS = 1 << 18;
+	private static final int BATCH = 64;
+	private static final int[] THREADS = { 1, 2, 4, 8 };
+
+	/* Common view of the structures under test: push and pop at the owner's end, steal at the other end. Pop and
+	steal return null when they find nothing. */
+
+	private interface Target {
+		void push(Integer x);
+		Integer pop();
+		Integer steal();
+	}
+
+	private static class StackTarget implements Target {
+		ConcurrentStack<Integer> stack = new ConcurrentStack<Integer>();
+
+		public void push(Integer x) {
+			this.stack.push(x);
+		}
+
+		public Integer pop() {
+			return this.stack.tryPop();
+		}
+
+		public Integer steal() {
+			return this.stack.tryPop();
+		}
+	}
+
+	private static class DequeTarget implements Target {
+		WorkStealingDeque<Integer> deque;
+
+		DequeTarget() throws Exception {
+			this.deque = new WorkStealingDeque<Integer>(BATCH);
+		}
+
+		public void push(Integer x) {
+			this.deque.push(x);
+		}
+
+		public Integer pop() {
+			return this.deque.pop();
+		}
+
+		public Integer steal() {
+			return this.deque.steal();
+		}
+	}
+
+	private static class LinkedTarget implements Target {
+		ConcurrentLinkedDeque<Integer> deque = new ConcurrentLinkedDeque<Integer>();
+
+		public void push(Integer x) {
+			this.deque.addFirst(x);
+		}
+
+		public Integer pop() {
+			return this.deque.pollFirst();
+		}
+
+		public Integer steal() {
+			return this.deque.pollLast();
+		}
+	}
+
+	private static class LockedTarget implements Target {
+		ArrayDeque<Integer> deque = new ArrayDeque<Integer>();
+
+		public synchronized void push(Integer x) {
+			this.deque.addFirst(x);
+		}
+
+		public synchronized Integer pop() {
+			return this.deque.pollFirst();
+		}
+
+		public synchronized Integer steal() {
+			return this.deque.pollLast();
+		}
+	}
+
+	/* Return a fresh instance of the named structure. */
+	private static Target target(String name) throws Exception {
+		if (name.equals("ConcurrentStack")) {
+			return new StackTarget();
+		} else if (name.equals("WorkStealingDeque")) {
+			return new DequeTarget();
+		} else if (name.equals("ConcurrentLinkedDeque")) {
+			return new LinkedTarget();
+		}
+		return new LockedTarget();
+	}
+
+	public static void run(Bench bench) throws Exception {
+		for (final int threads : THREADS) {
+			for (final String name : new String[] { "ConcurrentStack", "ConcurrentLinkedDeque", "LockedArrayDeque" }) {
+				bench.measure(Bench.name("Contention.stack", name, "threads=" + threads), OPS, new Bench.Case() {
+					Target target;
+
+					public void setup() throws Exception {
+						this.target = target(name);
+					}
+
+					public Object run() throws Exception {
+						return stackScenario(this.target, threads);
+					}
+				});
+			}
+			for (final String name : new String[] { "WorkStealingDeque", "ConcurrentLinkedDeque", "LockedArrayDeque" }) {
+				bench.measure(Bench.name("Contention.steal", name, "threads=" + threads), OPS, new Bench.Case() {
+					Target target;
+
+					public void setup() throws Exception {
+						this.target = target(name);
+					}
+
+					public Object run() throws Exception {
+						return stealScenario(this.target, threads);
+					}
+				});
+			}
+		}
+	}
+
+	/* Every thread pushes and pops OPS / threads times, and the result is the number of elements popped. */
+	private static int stackScenario(final Target target, int threads) throws Exception {
+		final int perThread = OPS / threads;
+		final AtomicInteger popped = new AtomicInteger(0);
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread() {
+				public void run() {
+					awaitQuietly(start);
+					int res = 0;
+					for (int j = 0; j < perThread; j++) {
+						target.push(j);
+						if (target.pop() != null) {
+							res++;
+						}
+					}
+					popped.addAndGet(res);
+				}
+			};
+			workers[i].start();
+		}
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return popped.get();
+	}
+
+	/* The owner pushes OPS elements in batches and pops half of each batch, while threads - 1 thieves steal until the
+	owner is done and the structure is empty. The result is the number of elements taken, which must be OPS. */
+	private static int stealScenario(final Target target, int threads) throws Exception {
+		final AtomicInteger taken = new AtomicInteger(0);
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicBoolean done = new AtomicBoolean(false);
+		Thread[] thieves = new Thread[threads - 1];
+		for (int i = 0; i < thieves.length; i++) {
+			thieves[i] = new Thread() {
+				public void run() {
+					awaitQuietly(start);
+					int res = 0;
+					while (true) {
+						if (target.steal() != null) {
+							res++;
+						} else if (done.get()) {
+							break;
+						}
+					}
+					taken.addAndGet(res);
+				}
+			};
+			thieves[i].start();
+		}
+		start.countDown();
+		int res = 0;
+		for (int i = 0; i < OPS; i += BATCH) {
+			for (int j = 0; j < BATCH; j++) {
+				target.push(i + j);
+			}
+			for (int j = 0; j < BATCH / 2; j++) {
+				if (target.pop() != null) {
+					res++;
+				}
+			}
+		}
+		while (target.pop() != null) {
+			res++;
+		}
+		done.set(true);
+		for (Thread thief : thieves) {
+			thief.join();
+		}
+		if (taken.addAndGet(res) != OPS) {
+			throw new IllegalStateException("Elements lost or duplicated: " + taken.get());
+		}
+		return taken.get();
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
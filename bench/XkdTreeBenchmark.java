@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+
+/* Benchmarks for XkdTree: bulk loading, k nearest neighbor queries, with and without a result cache, and deleting
+every point of a tree. */
+
+public class XkdTreeBenchmark {
+
+	private static final int QUERIES = 1024;
+	private static final int HOT_SPOTS = 32;
+
+	public static void run(Bench bench) throws Exception {
+		for (final String distribution : Bench.DISTRIBUTIONS) {
+			for (final int n : Bench.SIZES) {
+				final ArrayList<BenchPoint> points = BenchData.points(distribution, n, 42);
+				final ArrayList<Point2D> queries = BenchData.queries(QUERIES, 43);
+				final ArrayList<Point2D> hotQueries = BenchData.hotQueries(QUERIES, HOT_SPOTS, 44);
+				for (final int bucketSize : Bench.BUCKET_SIZES) {
+
+					/* bulkInsert sorts its argument in place, so each run loads a fresh copy of the points. */
+
+					bench.measure(Bench.name("XkdTree.bulkInsert", distribution, "n=" + n, "bucket=" + bucketSize), n,
+							new Bench.Case() {
+						ArrayList<BenchPoint> copy;
+
+						public void setup() {
+							this.copy = new ArrayList<BenchPoint>(points);
+						}
+
+						public Object run() throws Exception {
+							XkdTree<BenchPoint> tree = new XkdTree<BenchPoint>(bucketSize, BenchData.bbox());
+							tree.bulkInsert(this.copy);
+							return tree;
+						}
+					});
+
+					final XkdTree<BenchPoint> tree = new XkdTree<BenchPoint>(bucketSize, BenchData.bbox());
+					tree.bulkInsert(new ArrayList<BenchPoint>(points));
+					for (final int k : Bench.KS) {
+						bench.measure(Bench.name("XkdTree.kNearestNeighbor", distribution, "n=" + n, "bucket=" + bucketSize,
+								"k=" + k), QUERIES, new Bench.Case() {
+							public void setup() {
+							}
+
+							public Object run() {
+								int res = 0;
+								for (Point2D q : queries) {
+									res += tree.kNearestNeighbor(q, k).size();
+								}
+								return res;
+							}
+						});
+
+						/* Skewed queries, with and without a cache, which is emptied before every run. */
+
+						for (final boolean cached : new boolean[] { false, true }) {
+							bench.measure(Bench.name("XkdTree.kNearestNeighborHot", distribution, "n=" + n,
+									"bucket=" + bucketSize, "k=" + k, "cached=" + cached), QUERIES, new Bench.Case() {
+								public void setup() {
+									KNNCache<BenchPoint> cache = null;
+									if (cached) {
+										cache = new KNNCache<BenchPoint>(4 * HOT_SPOTS, 4 * HOT_SPOTS * k, 0);
+									}
+									tree.setCache(cache);
+								}
+
+								public Object run() {
+									int res = 0;
+									for (Point2D q : hotQueries) {
+										res += tree.kNearestNeighbor(q, k).size();
+									}
+									return res;
+								}
+							});
+						}
+						tree.setCache(null);
+					}
+					bench.measure(Bench.name("XkdTree.delete", distribution, "n=" + n, "bucket=" + bucketSize), n,
+							new Bench.Case() {
+						XkdTree<BenchPoint> full;
+
+						public void setup() throws Exception {
+							this.full = new XkdTree<BenchPoint>(bucketSize, BenchData.bbox());
+							this.full.bulkInsert(new ArrayList<BenchPoint>(points));
+						}
+
+						public Object run() throws Exception {
+							for (BenchPoint point : points) {
+								this.full.delete(point.getPoint2D());
+							}
+							return this.full;
+						}
+					});
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,154 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+
+/* Randomized test of CompactXkdTreeBuilder with tiny partitions. Small point sets, many of them with duplicated
+coordinates, are built with room for only one or a few points in memory, so that almost every region is partitioned
+again and samples hold a handful of points. Every build must succeed, keep every point, and answer k nearest neighbors
+queries like a brute-force list. Compile it together with the data structures (and the course-provided Point2D,
+Rectangle2D and LabeledPoint2D) and run:
+
+    java CompactXkdTreeBuilderTest [seeds]
+*/
+
+public class CompactXkdTreeBuilderTest {
+
+	private static final int MAX_POINTS = 60;
+	private static final int QUERIES = 20;
+
+	/* Labeled point used by the test. */
+
+	private static class TestPoint implements LabeledPoint2D {
+		private String label;
+		private Point2D point;
+
+		TestPoint(String label, double x, double y) {
+			this.label = label;
+			this.point = new Point2D(x, y);
+		}
+
+		public double getX() {
+			return this.point.getX();
+		}
+
+		public double getY() {
+			return this.point.getY();
+		}
+
+		public double get(int i) {
+			return this.point.get(i);
+		}
+
+		public Point2D getPoint2D() {
+			return this.point;
+		}
+
+		public String getLabel() {
+			return this.label;
+		}
+
+		public String toString() {
+			return this.label + ": " + this.point;
+		}
+	}
+
+	private static LabeledPointFactory<TestPoint> factory = new LabeledPointFactory<TestPoint>() {
+		public TestPoint create(String label, double x, double y) {
+			return new TestPoint(label, x, y);
+		}
+	};
+
+	public static void main(String[] args) throws Exception {
+		int seeds = 300;
+		if (args.length > 0) {
+			seeds = Integer.parseInt(args[0]);
+		}
+		Path dir = Files.createTempDirectory("xkdtest");
+		int failures = 0;
+		for (int seed = 0; seed < seeds; seed++) {
+			try {
+				run(seed, dir);
+			} catch (Exception e) {
+				System.out.println("seed " + seed + ": " + e.getMessage());
+				failures++;
+			}
+		}
+		if (dir.toFile().list().length > 0) {
+			System.out.println("temporary files left behind");
+			failures++;
+		}
+		Files.delete(dir);
+		System.out.println((seeds - failures) + " of " + seeds + " seeds passed");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/* Build a random point set with the given seed, throwing an exception at the first disagreement. */
+	private static void run(long seed, Path dir) throws Exception {
+		Random random = new Random(seed);
+		int bucketSize = 1 + random.nextInt(3);
+		int maxPartitionPoints = bucketSize + random.nextInt(3);
+		int n = random.nextInt(MAX_POINTS);
+		int grid = 1 + random.nextInt(6);
+		boolean line = random.nextInt(4) == 0;
+		ArrayList<TestPoint> list = new ArrayList<TestPoint>();
+		for (int i = 0; i < n; i++) {
+			double x = random.nextInt(grid), y = random.nextInt(grid);
+			if (random.nextBoolean()) {
+				x = random.nextDouble() * grid;
+				y = random.nextDouble() * grid;
+			}
+			if (line) {
+				x = 1.0;
+			}
+			list.add(new TestPoint("p" + i, x, y));
+		}
+		Path input = dir.resolve("in" + seed), output = dir.resolve("out" + seed);
+		CompactXkdTreeBuilder.writeBinary(list, input.toString());
+		CompactXkdTreeBuilder builder = new CompactXkdTreeBuilder(bucketSize, maxPartitionPoints);
+		builder.setTempDirectory(dir.toString());
+		CompactXkdTree<TestPoint> tree = null;
+		try {
+			builder.buildFromBinary(input.toString(), output.toString());
+			tree = CompactXkdTree.open(output.toString(), factory);
+			check(tree.size() == n, "size");
+			boolean[] seen = new boolean[n];
+			for (int i = 0; i < n; i++) {
+				int label = Integer.parseInt(tree.get(i).getLabel().substring(1));
+				check(!seen[label], "duplicate point");
+				seen[label] = true;
+			}
+			for (TestPoint pt : list) {
+				check(tree.find(pt.getPoint2D()) != null, "find");
+			}
+			for (int i = 0; i < QUERIES; i++) {
+				Point2D q = new Point2D(random.nextDouble() * grid, random.nextDouble() * grid);
+				int k = random.nextInt(n + 2);
+				ArrayList<TestPoint> res = tree.kNearestNeighbor(q, k);
+				check(res.size() == Math.min(k, n), "kNN size");
+				ArrayList<Double> expected = new ArrayList<Double>();
+				for (TestPoint pt : list) {
+					expected.add(q.distanceSq(pt.getPoint2D()));
+				}
+				expected.sort(null);
+				for (int j = 0; j < res.size(); j++) {
+					check(q.distanceSq(res.get(j).getPoint2D()) == expected.get(j), "kNN distance");
+				}
+			}
+		} finally {
+			if (tree != null) {
+				tree.close();
+			}
+			Files.deleteIfExists(input);
+			Files.deleteIfExists(output);
+		}
+	}
+
+	private static void check(boolean condition, String message) throws Exception {
+		if (!condition) {
+			throw new Exception(message);
+		}
+	}
+}
@@ -0,0 +1,174 @@
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/* Multi-threaded test of ConcurrentStack and WorkStealingDeque. In each round, several threads push distinct numbers
+onto a shared stack while popping from it, and an owner thread pushes numbers onto a small deque while popping from it,
+as several thieves steal from it. Once every thread is done and the structures are drained, every number pushed must
+have been taken out exactly once. Compile it together with the data structures and run:
+
+    java ConcurrentStackTest [rounds]
+*/
+
+public class ConcurrentStackTest {
+
+	private static final int THREADS = 4;
+	private static final int ITEMS = 20000;
+
+	public static void main(String[] args) throws Exception {
+		int rounds = 50;
+		if (args.length > 0) {
+			rounds = Integer.parseInt(args[0]);
+		}
+		int failures = 0;
+		for (int round = 0; round < rounds; round++) {
+			try {
+				stackRound(round);
+				dequeRound(round);
+			} catch (Exception e) {
+				System.out.println("round " + round + ": " + e.getMessage());
+				failures++;
+			}
+		}
+		System.out.println((rounds - failures) + " of " + rounds + " rounds passed");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/* Every thread pushes its own range of numbers, popping after some of its pushes, and counts what it pops. */
+	private static void stackRound(long seed) throws Exception {
+		final ConcurrentStack<Integer> stack = new ConcurrentStack<Integer>();
+		final AtomicIntegerArray taken = new AtomicIntegerArray(THREADS * ITEMS);
+		final CyclicBarrier start = new CyclicBarrier(THREADS);
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+		for (int i = 0; i < THREADS; i++) {
+			final int id = i;
+			final Random random = new Random(seed * THREADS + i);
+			threads.add(new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+						for (int j = 0; j < ITEMS; j++) {
+							stack.push(id * ITEMS + j);
+							if (random.nextInt(3) == 0) {
+								Integer x = stack.tryPop();
+								if (x != null) {
+									taken.incrementAndGet(x);
+								}
+							}
+						}
+					} catch (Throwable e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					}
+				}
+			}));
+		}
+		join(threads, errors);
+		check(stack.size() == stack.list().size(), "stack size");
+		while (!stack.isEmpty()) {
+			taken.incrementAndGet(stack.pop());
+		}
+		check(stack.tryPop() == null && stack.size() == 0, "drained stack");
+		boolean threw = false;
+		try {
+			stack.pop();
+		} catch (Exception e) {
+			threw = true;
+		}
+		check(threw, "pop of empty stack");
+		checkTaken(taken, "stack");
+	}
+
+	/* The owner pushes numbers in order, popping after some of its pushes, while the thieves steal until the owner is
+	done and the deque is empty. The deque starts small, so that it grows while thieves read from it. */
+	private static void dequeRound(long seed) throws Exception {
+		final Random random = new Random(seed);
+		final WorkStealingDeque<Integer> deque = new WorkStealingDeque<Integer>(1 + random.nextInt(4));
+		final AtomicIntegerArray taken = new AtomicIntegerArray(THREADS * ITEMS);
+		final AtomicBoolean done = new AtomicBoolean(false);
+		final CyclicBarrier start = new CyclicBarrier(THREADS);
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+		threads.add(new Thread(new Runnable() {
+			public void run() {
+				try {
+					start.await();
+					for (int j = 0; j < THREADS * ITEMS; j++) {
+						deque.push(j);
+						if (random.nextInt(3) == 0) {
+							Integer x = deque.pop();
+							if (x != null) {
+								taken.incrementAndGet(x);
+							}
+						}
+					}
+					Integer x = deque.pop();
+					while (x != null) {
+						taken.incrementAndGet(x);
+						x = deque.pop();
+					}
+				} catch (Throwable e) {
+					synchronized (errors) {
+						errors.add(e);
+					}
+				} finally {
+					done.set(true);
+				}
+			}
+		}));
+		for (int i = 1; i < THREADS; i++) {
+			threads.add(new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+						while (!done.get() || !deque.isEmpty()) {
+							Integer x = deque.steal();
+							if (x != null) {
+								taken.incrementAndGet(x);
+							}
+						}
+					} catch (Throwable e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					}
+				}
+			}));
+		}
+		join(threads, errors);
+		check(deque.isEmpty() && deque.size() == 0 && deque.steal() == null && deque.pop() == null, "drained deque");
+		checkTaken(taken, "deque");
+	}
+
+	/* Private helper method which starts the given threads, waits for them, and rethrows the first error. */
+	private static void join(ArrayList<Thread> threads, ArrayList<Throwable> errors) throws Exception {
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		if (errors.size() > 0) {
+			throw new Exception("thread failed: " + errors.get(0));
+		}
+	}
+
+	/* Private helper method which checks that every number was taken out exactly once. */
+	private static void checkTaken(AtomicIntegerArray taken, String name) throws Exception {
+		for (int i = 0; i < taken.length(); i++) {
+			check(taken.get(i) == 1, name + ": " + i + " taken " + taken.get(i) + " times");
+		}
+	}
+
+	private static void check(boolean condition, String message) throws Exception {
+		if (!condition) {
+			throw new Exception(message);
+		}
+	}
+}
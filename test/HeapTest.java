@@ -0,0 +1,215 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+/* Randomized test of PairingHeap and RadixHeap against LeftistHeap. The three heaps receive the same insertions,
+extractions, merges with heaps of their own class and of other classes, splits, and round trips through writeShape and
+readShape, and must agree on the order of their keys throughout. Keys are drawn from a few integers at or above the last
+key extracted, as a radix heap requires, so that many of them are equal. Since equal keys may be extracted in a
+different order by each heap, values are only checked to belong to live entries with the key extracted. Compile it
+together with the data structures and run:
+
+    java HeapTest [seeds]
+*/
+
+public class HeapTest {
+
+	private static final int GRID = 8;
+	private static final int OPS = 2000;
+	private static final int HEAPS = 3;
+
+	private static int next;
+
+	public static void main(String[] args) throws Exception {
+		int seeds = 300;
+		if (args.length > 0) {
+			seeds = Integer.parseInt(args[0]);
+		}
+		int failures = 0;
+		for (int seed = 0; seed < seeds; seed++) {
+			try {
+				run(seed);
+			} catch (Exception e) {
+				System.out.println("seed " + seed + ": " + e.getMessage());
+				failures++;
+			}
+		}
+		System.out.println((seeds - failures) + " of " + seeds + " seeds passed");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/* Run a random sequence of operations with the given seed, throwing an exception at the first disagreement. Heap 0
+	is the leftist heap, and every heap has its own map from the values of its live entries to their keys. */
+	private static void run(long seed) throws Exception {
+		Random random = new Random(seed);
+		ArrayList<MeldableHeap<Double, Integer>> heaps = new ArrayList<MeldableHeap<Double, Integer>>();
+		ArrayList<HashMap<Integer, Double>> live = new ArrayList<HashMap<Integer, Double>>();
+		for (int h = 0; h < HEAPS; h++) {
+			heaps.add(newHeap(h));
+			live.add(new HashMap<Integer, Double>());
+		}
+		double floor = 0;
+		for (int op = 0; op < OPS; op++) {
+			int kind = random.nextInt(10);
+			if (kind <= 2) {
+				double x = floor + random.nextInt(GRID);
+				int v = next++;
+				for (int h = 0; h < HEAPS; h++) {
+					heaps.get(h).insert(x, v);
+					live.get(h).put(v, x);
+				}
+			} else if (kind <= 5 && !live.get(0).isEmpty()) {
+				floor = heaps.get(0).getMinKey();
+				for (int h = 0; h < HEAPS; h++) {
+					Integer v = heaps.get(h).extractMin();
+					check(live.get(h).containsKey(v) && live.get(h).remove(v) == floor, "extractMin");
+				}
+			} else if (kind == 6) {
+
+				/* Merge a small heap of the same class, or of the next class, into every heap. */
+
+				boolean sameClass = random.nextBoolean();
+				ArrayList<Double> keys = new ArrayList<Double>();
+				int n = random.nextInt(GRID);
+				for (int i = 0; i < n; i++) {
+					keys.add(floor + random.nextInt(GRID));
+				}
+				int first = next;
+				next += n;
+				for (int h = 0; h < HEAPS; h++) {
+					MeldableHeap<Double, Integer> other = newHeap(sameClass ? h : (h + 1) % HEAPS);
+					for (int i = 0; i < n; i++) {
+						other.insert(keys.get(i), first + i);
+						live.get(h).put(first + i, keys.get(i));
+					}
+					heaps.get(h).mergeWith(other);
+					check(other.isEmpty(), "merged heap not emptied");
+				}
+			} else if (kind == 7) {
+
+				/* Split every heap, then drain the split-off heaps or merge them back. */
+
+				double x = floor + random.nextInt(GRID);
+				boolean drain = random.nextBoolean();
+				ArrayList<MeldableHeap<Double, Integer>> parts = new ArrayList<MeldableHeap<Double, Integer>>();
+				for (int h = 0; h < HEAPS; h++) {
+					parts.add(heaps.get(h).split(x));
+				}
+				ArrayList<Double> expected = null;
+				for (int h = 0; h < HEAPS; h++) {
+					MeldableHeap<Double, Integer> part = parts.get(h);
+					if (!drain) {
+						heaps.get(h).mergeWith(part);
+						continue;
+					}
+					check(heaps.get(h).isEmpty() || heaps.get(h).getMinKey() <= x, "split kept a larger key");
+					ArrayList<Double> keys = new ArrayList<Double>();
+					while (!part.isEmpty()) {
+						Double key = part.getMinKey();
+						Integer v = part.extractMin();
+						check(key > x && live.get(h).containsKey(v) && live.get(h).remove(v).equals(key), "split");
+						keys.add(key);
+					}
+					if (h == 0) {
+						expected = keys;
+					}
+					check(keys.equals(expected), "split key order");
+				}
+			} else if (kind == 8) {
+
+				/* Replace every heap with a copy read back from its shape, checking the original is unchanged. */
+
+				for (int h = 0; h < HEAPS; h++) {
+					MeldableHeap<Double, Integer> heap = heaps.get(h);
+					ArrayList<String> before = heap.list();
+					final ArrayList<Object> shape = new ArrayList<Object>();
+					heap.writeShape(new ShapeWriter<Double, Integer>() {
+						public void putInt(int v) {
+							shape.add(v);
+						}
+
+						public void putKey(Double key) {
+							shape.add(key);
+						}
+
+						public void putValue(Integer value) {
+							shape.add(value);
+						}
+					});
+					check(heap.list().equals(before), "writeShape changed the heap");
+					final int[] position = {0};
+					MeldableHeap<Double, Integer> copy = newHeap(h);
+					copy.readShape(new ShapeReader<Double, Integer>() {
+						public int getInt() {
+							return (Integer) shape.get(position[0]++);
+						}
+
+						public Double getKey() {
+							return (Double) shape.get(position[0]++);
+						}
+
+						public Integer getValue() {
+							return (Integer) shape.get(position[0]++);
+						}
+					});
+					check(position[0] == shape.size(), "readShape left part of the shape");
+					check(copy.list().equals(before), "readShape built a different heap");
+					heaps.set(h, copy);
+				}
+			} else {
+
+				/* Every heap must visit exactly its live entries. */
+
+				for (int h = 0; h < HEAPS; h++) {
+					final HashMap<Integer, Double> seen = new HashMap<Integer, Double>();
+					heaps.get(h).forEach(new BiConsumer<Double, Integer>() {
+						public void accept(Double key, Integer value) {
+							seen.put(value, key);
+						}
+					});
+					check(seen.equals(live.get(h)), "forEach");
+				}
+			}
+			for (int h = 0; h < HEAPS; h++) {
+				check(live.get(h).size() == live.get(0).size(), "size");
+				check(heaps.get(h).isEmpty() == live.get(h).isEmpty(), "isEmpty");
+				if (!live.get(0).isEmpty()) {
+					check(heaps.get(h).getMinKey().equals(heaps.get(0).getMinKey()), "getMinKey");
+				}
+			}
+		}
+		ArrayList<Double> expected = drained(heaps.get(0));
+		for (int h = 1; h < HEAPS; h++) {
+			check(drained(heaps.get(h)).equals(expected), "final key order");
+		}
+	}
+
+	/* Private helper method which drains a heap and returns its keys in order. */
+	private static ArrayList<Double> drained(MeldableHeap<Double, Integer> heap) throws Exception {
+		ArrayList<Double> res = new ArrayList<Double>();
+		while (!heap.isEmpty()) {
+			res.add(heap.getMinKey());
+			heap.extractMin();
+		}
+		return res;
+	}
+
+	/* Return a new, empty leftist, pairing or radix heap. */
+	private static MeldableHeap<Double, Integer> newHeap(int kind) {
+		if (kind == 0) {
+			return new LeftistHeap<Double, Integer>();
+		} else if (kind == 1) {
+			return new PairingHeap<Double, Integer>();
+		}
+		return new RadixHeap<Integer>();
+	}
+
+	private static void check(boolean condition, String message) throws Exception {
+		if (!condition) {
+			throw new Exception(message);
+		}
+	}
+}
@@ -0,0 +1,240 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/* Randomized test of KCapFL checkpoints. Every seed runs a locator to completion without checkpoints, then runs a
+second one with the same points, taking checkpoints to one file and then switching to another, and finally resumes a
+third locator from each file, as if the process had crashed. Points are drawn from a small grid half of the time, so
+that many candidates tie, and ties must be broken the same way in every run. Taking a checkpoint must not change the
+clusters returned, and a resumed locator must report every cluster returned before its last checkpoint and then return
+the same clusters as the uninterrupted run. Clusters are compared by the labels of their points. Compile it together
+with the data structures (and the course-provided Point2D, Rectangle2D and LabeledPoint2D) and run:
+
+    java KCapFLCheckpointTest [seeds]
+*/
+
+public class KCapFLCheckpointTest {
+
+	private static final int MAX_CLUSTERS = 40;
+
+	/* Labeled point used by the test. */
+
+	private static class TestPoint implements LabeledPoint2D {
+		private String label;
+		private Point2D point;
+
+		TestPoint(String label, double x, double y) {
+			this.label = label;
+			this.point = new Point2D(x, y);
+		}
+
+		public double getX() {
+			return this.point.getX();
+		}
+
+		public double getY() {
+			return this.point.getY();
+		}
+
+		public double get(int i) {
+			return this.point.get(i);
+		}
+
+		public Point2D getPoint2D() {
+			return this.point;
+		}
+
+		public String getLabel() {
+			return this.label;
+		}
+
+		public String toString() {
+			return this.label + ": " + this.point;
+		}
+	}
+
+	private static LabeledPointFactory<TestPoint> factory = new LabeledPointFactory<TestPoint>() {
+		public TestPoint create(String label, double x, double y) {
+			return new TestPoint(label, x, y);
+		}
+	};
+
+	public static void main(String[] args) throws Exception {
+		int seeds = 200;
+		if (args.length > 0) {
+			seeds = Integer.parseInt(args[0]);
+		}
+		Path dir = Files.createTempDirectory("kcapfltest");
+		int failures = 0;
+		for (int seed = 0; seed < seeds; seed++) {
+			try {
+				run(seed, dir);
+			} catch (Exception e) {
+				System.out.println("seed " + seed + ": " + e.getMessage());
+				failures++;
+			}
+		}
+		if (dir.toFile().list().length > 0) {
+			System.out.println("temporary files left behind");
+			failures++;
+		}
+		for (String name : dir.toFile().list()) {
+			Files.delete(dir.resolve(name));
+		}
+		Files.delete(dir);
+		System.out.println((seeds - failures) + " of " + seeds + " seeds passed");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/* Run the locators with the given seed, throwing an exception at the first disagreement. */
+	private static void run(long seed, Path dir) throws Exception {
+		Random random = new Random(seed);
+		final int capacity = 1 + random.nextInt(4);
+		final int bucketSize = 1 + random.nextInt(4);
+		final int heapKind = random.nextInt(3);
+		int clusters = 1 + random.nextInt(MAX_CLUSTERS);
+		int grid = 2 + random.nextInt(6);
+		boolean ties = random.nextBoolean();
+		ArrayList<TestPoint> pts = new ArrayList<TestPoint>();
+		for (int i = 0; i < clusters * capacity; i++) {
+			if (ties) {
+				pts.add(new TestPoint("p" + i, random.nextInt(grid), random.nextInt(grid)));
+			} else {
+				pts.add(new TestPoint("p" + i, random.nextDouble() * grid, random.nextDouble() * grid));
+			}
+		}
+		Rectangle2D bbox = new Rectangle2D(new Point2D(0, 0), new Point2D(grid, grid));
+
+		/* The uninterrupted run. */
+
+		KCapFL<TestPoint> plain = locator(capacity, bucketSize, bbox, heapKind);
+		plain.build(new ArrayList<TestPoint>(pts));
+		ArrayList<String> expected = new ArrayList<String>();
+		for (int i = 0; i < clusters; i++) {
+			expected.add(labels(plain.extractCluster()));
+		}
+		check(plain.extractCluster() == null, "extra cluster");
+		plain.clear();
+
+		/* The checkpointed run: a base and a delta to the first file, then a base to the second file, with clusters
+		extracted before, between and after the checkpoints. */
+
+		Path firstPath = dir.resolve("first" + seed), secondPath = dir.resolve("second" + seed);
+		String first = firstPath.toString(), second = secondPath.toString();
+		int a = random.nextInt(clusters + 1);
+		int b = a + random.nextInt(clusters - a + 1);
+		int c = b + random.nextInt(clusters - b + 1);
+		try {
+			checkpointed(pts, expected, first, second, a, b, c, capacity, bucketSize, bbox, heapKind);
+		} finally {
+			Files.deleteIfExists(firstPath);
+			Files.deleteIfExists(secondPath);
+		}
+	}
+
+	/* Run the checkpointed locator and the resumed ones, taking checkpoints after the given numbers of clusters. */
+	private static void checkpointed(ArrayList<TestPoint> pts, ArrayList<String> expected, String first, String second,
+			int a, int b, int c, int capacity, int bucketSize, Rectangle2D bbox, int heapKind) throws Exception {
+		int clusters = expected.size();
+		KCapFL<TestPoint> checkpointed = locator(capacity, bucketSize, bbox, heapKind);
+		checkpointed.build(new ArrayList<TestPoint>(pts));
+		for (int i = 0; i <= clusters; i++) {
+			if (i == a) {
+				checkpointed.checkpoint(first);
+			}
+			if (i == b) {
+				checkpointed.checkpoint(first);
+			}
+			if (i == c) {
+				checkpointed.checkpoint(second);
+			}
+			if (i < clusters) {
+				check(labels(checkpointed.extractCluster()).equals(expected.get(i)), "checkpoint changed the run");
+			}
+		}
+		checkpointed.clear();
+
+		/* The resumed runs. */
+
+		resume(first, b, expected, capacity, bucketSize, bbox, heapKind);
+		resume(second, c, expected, capacity, bucketSize, bbox, heapKind);
+
+		/* A file written by a locator with other parameters is rejected. */
+
+		boolean rejected = false;
+		try {
+			locator(capacity, bucketSize + 1, bbox, heapKind).resume(second, factory);
+		} catch (Exception e) {
+			rejected = true;
+		}
+		check(rejected, "mismatched bucket size accepted");
+		rejected = false;
+		try {
+			Rectangle2D other = new Rectangle2D(bbox.getLow(), new Point2D(bbox.getHigh().getX() + 1,
+					bbox.getHigh().getY()));
+			locator(capacity, bucketSize, other, heapKind).resume(second, factory);
+		} catch (Exception e) {
+			rejected = true;
+		}
+		check(rejected, "mismatched bounding box accepted");
+		rejected = false;
+		try {
+			locator(capacity, bucketSize, bbox, (heapKind + 1) % 3).resume(second, factory);
+		} catch (Exception e) {
+			rejected = true;
+		}
+		check(rejected, "mismatched heap accepted");
+	}
+
+	/* Resume a locator from a file whose last checkpoint was taken after the given number of clusters, and check it
+	against the uninterrupted run. */
+	private static void resume(String fileName, int done, ArrayList<String> expected, int capacity, int bucketSize,
+			Rectangle2D bbox, int heapKind) throws Exception {
+		KCapFL<TestPoint> resumed = locator(capacity, bucketSize, bbox, heapKind);
+		ArrayList<ArrayList<TestPoint>> reported = resumed.resume(fileName, factory);
+		check(reported.size() == done, "resume reported " + reported.size() + " clusters, not " + done);
+		for (int i = 0; i < done; i++) {
+			check(labels(reported.get(i)).equals(expected.get(i)), "resume reported a wrong cluster");
+		}
+		for (int i = done; i < expected.size(); i++) {
+			check(labels(resumed.extractCluster()).equals(expected.get(i)), "resumed run differs");
+		}
+		check(resumed.extractCluster() == null, "extra cluster after resume");
+		resumed.clear();
+	}
+
+	/* Return a new locator with a leftist, pairing or radix heap. */
+	private static KCapFL<TestPoint> locator(int capacity, int bucketSize, Rectangle2D bbox, final int heapKind) {
+		return new KCapFL<TestPoint>(capacity, bucketSize, bbox,
+				new Supplier<MeldableHeap<Double, ArrayList<TestPoint>>>() {
+			public MeldableHeap<Double, ArrayList<TestPoint>> get() {
+				if (heapKind == 0) {
+					return new LeftistHeap<Double, ArrayList<TestPoint>>();
+				} else if (heapKind == 1) {
+					return new PairingHeap<Double, ArrayList<TestPoint>>();
+				}
+				return new RadixHeap<ArrayList<TestPoint>>();
+			}
+		});
+	}
+
+	/* Return the labels of the points of a cluster, in order. */
+	private static String labels(ArrayList<TestPoint> cluster) throws Exception {
+		check(cluster != null, "missing cluster");
+		String res = "";
+		for (TestPoint pt : cluster) {
+			res += pt.getLabel() + " ";
+		}
+		return res;
+	}
+
+	private static void check(boolean condition, String message) throws Exception {
+		if (!condition) {
+			throw new Exception(message);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+/* Randomized differential test of KNNCache. Two extended kd-trees receive the same insertions and deletions, one with a
+cache and one without, and every k nearest neighbors query must get the same answer from both. Queries come from a
+small set of centers, so that entries are hit, invalidated by nearby changes, and evicted by the small limits of the
+cache. Some queries ask for more points than the tree holds, or for so many that their radius covers most of the grid,
+so that wide entries are created and invalidated too. Compile it together with the data structures (and the
+course-provided Point2D, Rectangle2D and LabeledPoint2D) and run:
+
+    java KNNCacheTest [seeds]
+*/
+
+public class KNNCacheTest {
+
+	private static final double SIDE = 100.0;
+	private static final int CENTERS = 12;
+	private static final int OPS = 3000;
+
+	/* Labeled point used by the test. */
+
+	private static class TestPoint implements LabeledPoint2D {
+		private String label;
+		private Point2D point;
+
+		TestPoint(String label, double x, double y) {
+			this.label = label;
+			this.point = new Point2D(x, y);
+		}
+
+		public double getX() {
+			return this.point.getX();
+		}
+
+		public double getY() {
+			return this.point.getY();
+		}
+
+		public double get(int i) {
+			return this.point.get(i);
+		}
+
+		public Point2D getPoint2D() {
+			return this.point;
+		}
+
+		public String getLabel() {
+			return this.label;
+		}
+
+		public String toString() {
+			return this.label + ": " + this.point;
+		}
+	}
+
+	private static long hits, evictions, invalidations;
+
+	public static void main(String[] args) throws Exception {
+		int seeds = 100;
+		if (args.length > 0) {
+			seeds = Integer.parseInt(args[0]);
+		}
+		int failures = 0;
+		for (int seed = 0; seed < seeds; seed++) {
+			try {
+				run(seed);
+			} catch (Exception e) {
+				System.out.println("seed " + seed + ": " + e.getMessage());
+				failures++;
+			}
+		}
+		System.out.println("hits=" + hits + " evictions=" + evictions + " invalidations=" + invalidations);
+		if (failures == 0 && (hits == 0 || evictions == 0 || invalidations == 0)) {
+			System.out.println("cache paths not exercised");
+			failures++;
+		}
+		System.out.println((seeds - failures) + " of " + seeds + " seeds passed");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/* Run a random sequence of operations with the given seed, throwing an exception at the first disagreement. */
+	private static void run(long seed) throws Exception {
+		Random random = new Random(seed);
+		int bucketSize = 1 + random.nextInt(4);
+		Rectangle2D bbox = new Rectangle2D(new Point2D(0, 0), new Point2D(SIDE, SIDE));
+		XkdTree<TestPoint> cached = new XkdTree<TestPoint>(bucketSize, bbox);
+		XkdTree<TestPoint> plain = new XkdTree<TestPoint>(bucketSize, bbox);
+		int maxEntries = 1 + random.nextInt(8), maxWeight = 10 + random.nextInt(60);
+		KNNCache<TestPoint> cache = new KNNCache<TestPoint>(maxEntries, maxWeight, 0);
+		cached.setCache(cache);
+		ArrayList<Point2D> centers = new ArrayList<Point2D>();
+		for (int i = 0; i < CENTERS; i++) {
+			centers.add(new Point2D(random.nextDouble() * SIDE, random.nextDouble() * SIDE));
+		}
+		ArrayList<TestPoint> list = new ArrayList<TestPoint>();
+		for (int op = 0; op < OPS; op++) {
+			int kind = random.nextInt(10);
+			if (kind == 0) {
+				ArrayList<TestPoint> pts = new ArrayList<TestPoint>();
+				int n = random.nextInt(2 * bucketSize + 2);
+				for (int i = 0; i < n; i++) {
+					pts.add(new TestPoint("p" + op + "." + i, random.nextDouble() * SIDE, random.nextDouble() * SIDE));
+				}
+				cached.bulkInsert(new ArrayList<TestPoint>(pts));
+				plain.bulkInsert(new ArrayList<TestPoint>(pts));
+				list.addAll(pts);
+			} else if (kind <= 2) {
+				Point2D q = centers.get(random.nextInt(CENTERS));
+				double r = random.nextDouble() * 10;
+				TestPoint pt = new TestPoint("p" + op, clamp(q.getX() + r), clamp(q.getY() - r));
+				cached.insert(pt);
+				plain.insert(pt);
+				list.add(pt);
+			} else if (kind <= 4 && list.size() > 0) {
+				TestPoint pt = list.remove(random.nextInt(list.size()));
+				cached.remove(pt);
+				plain.remove(pt);
+			} else {
+				Point2D q = centers.get(random.nextInt(CENTERS));
+				int k = random.nextInt(5) == 0 ? list.size() + random.nextInt(3) : 1 + random.nextInt(6);
+				if (k == 0) {
+					continue;
+				}
+				ArrayList<TestPoint> res = cached.kNearestNeighbor(q, k);
+				ArrayList<TestPoint> expected = plain.kNearestNeighbor(q, k);
+				check(res.size() == expected.size(), "kNN size");
+				for (int i = 0; i < res.size(); i++) {
+					check(q.distanceSq(res.get(i).getPoint2D()) == q.distanceSq(expected.get(i).getPoint2D()),
+							"kNN distance");
+					check(cached.contains(res.get(i)), "kNN returned a deleted point");
+				}
+			}
+			check(cache.size() <= maxEntries && cache.weight() <= maxWeight, "cache limits");
+		}
+		hits += cache.hits();
+		evictions += cache.evictions();
+		invalidations += cache.invalidations();
+	}
+
+	private static double clamp(double v) {
+		return Math.max(0, Math.min(SIDE, v));
+	}
+
+	private static void check(boolean condition, String message) throws Exception {
+		if (!condition) {
+			throw new Exception(message);
+		}
+	}
+}
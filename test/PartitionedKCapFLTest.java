@@ -0,0 +1,159 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Random;
+
+/* Randomized test of PartitionedKCapFL. Every run must return every point exactly once, in clusters of the capacity
+sorted by radius, each led by its center and ending with its farthest point, and must count every cluster as kept
+locally or reconciled. Two settings have a known answer, which is checked against the sequential KCapFL: with a single
+partition, nothing is set aside, and with a huge tolerance, every cluster of positive radius is set aside and
+reconciled, so that the output is the sequential one. Points are drawn from a small grid in the other runs, so that
+many clusters have a radius of 0 or meet their partition's boundary. Compile it together with the data structures (and
+the course-provided Point2D, Rectangle2D and LabeledPoint2D) and run:
+
+    java PartitionedKCapFLTest [seeds]
+*/
+
+public class PartitionedKCapFLTest {
+
+	private static final int GRID = 8;
+	private static final int MAX_CLUSTERS = 60;
+
+	/* Labeled point used by the test. */
+
+	private static class TestPoint implements LabeledPoint2D {
+		private String label;
+		private Point2D point;
+
+		TestPoint(String label, double x, double y) {
+			this.label = label;
+			this.point = new Point2D(x, y);
+		}
+
+		public double getX() {
+			return this.point.getX();
+		}
+
+		public double getY() {
+			return this.point.getY();
+		}
+
+		public double get(int i) {
+			return this.point.get(i);
+		}
+
+		public Point2D getPoint2D() {
+			return this.point;
+		}
+
+		public String getLabel() {
+			return this.label;
+		}
+
+		public String toString() {
+			return this.label + ": " + this.point;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int seeds = 200;
+		if (args.length > 0) {
+			seeds = Integer.parseInt(args[0]);
+		}
+		int failures = 0;
+		for (int seed = 0; seed < seeds; seed++) {
+			try {
+				run(seed);
+			} catch (Exception e) {
+				System.out.println("seed " + seed + ": " + e.getMessage());
+				failures++;
+			}
+		}
+		System.out.println((seeds - failures) + " of " + seeds + " seeds passed");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/* Cluster a random point set with the given seed, throwing an exception at the first disagreement. */
+	private static void run(long seed) throws Exception {
+		Random random = new Random(seed);
+		int capacity = 1 + random.nextInt(4);
+		int bucketSize = 1 + random.nextInt(4);
+		int threads = 1 + random.nextInt(4);
+		int levels = random.nextInt(5);
+		int mode = random.nextInt(3);
+		boolean grid = mode == 0;
+		double tolerance = random.nextDouble() * 2;
+		if (mode == 1) {
+			levels = 0;
+		} else if (mode == 2) {
+			capacity = Math.max(capacity, 2);
+			tolerance = 1e9;
+		}
+		int clusters = 1 + random.nextInt(MAX_CLUSTERS);
+		Rectangle2D bbox = new Rectangle2D(new Point2D(0, 0), new Point2D(GRID, GRID));
+		ArrayList<TestPoint> pts = new ArrayList<TestPoint>();
+		for (int i = 0; i < clusters * capacity; i++) {
+			if (grid) {
+				pts.add(new TestPoint("p" + i, random.nextInt(GRID + 1), random.nextInt(GRID + 1)));
+			} else {
+				pts.add(new TestPoint("p" + i, random.nextDouble() * GRID, random.nextDouble() * GRID));
+			}
+		}
+		PartitionedKCapFL<TestPoint> partitioned = new PartitionedKCapFL<TestPoint>(capacity, bucketSize, bbox, levels,
+				tolerance, threads);
+		ArrayList<ArrayList<TestPoint>> res = partitioned.cluster(new ArrayList<TestPoint>(pts));
+
+		/* Every point is returned exactly once, in valid clusters sorted by radius. */
+
+		check(res.size() == clusters, "number of clusters");
+		check(partitioned.getLocalCount() + partitioned.getReconciledCount() == clusters, "counts");
+		IdentityHashMap<TestPoint, Boolean> seen = new IdentityHashMap<TestPoint, Boolean>();
+		for (int i = 0; i < res.size(); i++) {
+			ArrayList<TestPoint> cluster = res.get(i);
+			check(cluster.size() == capacity, "cluster size");
+			Point2D c = cluster.get(0).getPoint2D();
+			for (TestPoint pt : cluster) {
+				check(seen.put(pt, true) == null, "point returned twice");
+				check(c.distanceSq(pt.getPoint2D()) <= PartitionedKCapFL.radiusSq(cluster), "point beyond radius");
+			}
+			if (i > 0) {
+				check(PartitionedKCapFL.radiusSq(res.get(i - 1)) <= PartitionedKCapFL.radiusSq(cluster), "order");
+			}
+		}
+		for (TestPoint pt : pts) {
+			check(seen.containsKey(pt), "point missing");
+		}
+		if (tolerance == 0) {
+			check(partitioned.getReconciledCount() == 0, "reconciled with a tolerance of 0");
+		}
+		if (mode == 0) {
+			return;
+		}
+
+		/* A single partition, or reconciling everything, gives the sequential output. */
+
+		KCapFL<TestPoint> sequential = new KCapFL<TestPoint>(capacity, bucketSize, bbox);
+		sequential.build(new ArrayList<TestPoint>(pts));
+		ArrayList<ArrayList<TestPoint>> exact = new ArrayList<ArrayList<TestPoint>>();
+		ArrayList<TestPoint> cluster = sequential.extractCluster();
+		while (cluster != null) {
+			exact.add(cluster);
+			cluster = sequential.extractCluster();
+		}
+		check(PartitionedKCapFL.divergence(res, exact) == 0, "divergence from the sequential output");
+		double cost = PartitionedKCapFL.cost(exact);
+		check(Math.abs(PartitionedKCapFL.cost(res) - cost) <= 1e-9 * cost, "cost");
+		if (mode == 1) {
+			check(partitioned.getReconciledCount() == 0, "reconciled with a single partition");
+		} else if (levels > 0 && clusters > 1) {
+			check(partitioned.getLocalCount() == 0, "kept a cluster with a huge tolerance");
+		}
+	}
+
+	private static void check(boolean condition, String message) throws Exception {
+		if (!condition) {
+			throw new Exception(message);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/* Randomized test of ShardedXkdTree against a brute-force list of points. Trees have up to 16 shards, with cuts either
+halving the bounding box or chosen from a sample of the points, and are queried either one shard at a time or in
+parallel. Points are drawn from a small grid half of the time, so that many of them lie exactly on the cuts between
+shards, and queries often sit on a shard boundary. After every insertion, deletion or query, the tree must agree with
+the list. Since a deletion removes any one point with the given coordinates, points are compared by coordinates. Compile
+it together with the data structures (and the course-provided Point2D, Rectangle2D and LabeledPoint2D) and run:
+
+    java ShardedXkdTreeTest [seeds]
+*/
+
+public class ShardedXkdTreeTest {
+
+	private static final int GRID = 8;
+	private static final int OPS = 1000;
+
+	/* Labeled point used by the test. */
+
+	private static class TestPoint implements LabeledPoint2D {
+		private String label;
+		private Point2D point;
+
+		TestPoint(String label, double x, double y) {
+			this.label = label;
+			this.point = new Point2D(x, y);
+		}
+
+		public double getX() {
+			return this.point.getX();
+		}
+
+		public double getY() {
+			return this.point.getY();
+		}
+
+		public double get(int i) {
+			return this.point.get(i);
+		}
+
+		public Point2D getPoint2D() {
+			return this.point;
+		}
+
+		public String getLabel() {
+			return this.label;
+		}
+
+		public String toString() {
+			return this.label + ": " + this.point;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int seeds = 200;
+		if (args.length > 0) {
+			seeds = Integer.parseInt(args[0]);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		int failures = 0;
+		try {
+			for (int seed = 0; seed < seeds; seed++) {
+				try {
+					run(seed, executor);
+				} catch (Exception e) {
+					System.out.println("seed " + seed + ": " + e.getMessage());
+					failures++;
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		System.out.println((seeds - failures) + " of " + seeds + " seeds passed");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/* Run a random sequence of operations with the given seed, throwing an exception at the first disagreement. */
+	private static void run(long seed, ExecutorService executor) throws Exception {
+		Random random = new Random(seed);
+		final int bucketSize = 1 + random.nextInt(4);
+		int levels = random.nextInt(5);
+		boolean grid = random.nextBoolean();
+		Rectangle2D bbox = new Rectangle2D(new Point2D(0, 0), new Point2D(GRID - 1, GRID - 1));
+		ArrayList<TestPoint> list = new ArrayList<TestPoint>();
+		ShardedXkdTree<TestPoint> tree;
+		if (random.nextBoolean()) {
+			tree = new ShardedXkdTree<TestPoint>(bucketSize, bbox, levels);
+		} else {
+			ArrayList<TestPoint> sample = new ArrayList<TestPoint>();
+			int n = random.nextInt(4 << levels);
+			for (int i = 0; i < n; i++) {
+				sample.add(point("s" + i, random, grid));
+			}
+			tree = new ShardedXkdTree<TestPoint>(bbox, levels, sample, new ShardedXkdTree.ShardFactory<TestPoint>() {
+				public XkdShard<TestPoint> create(Rectangle2D region) {
+					return new LocalXkdShard<TestPoint>(bucketSize, region);
+				}
+			});
+		}
+		check(tree.shardCount() == 1 << levels, "shard count");
+		if (random.nextBoolean()) {
+			tree.setExecutor(executor);
+		}
+		for (int op = 0; op < OPS; op++) {
+			TestPoint p = point("p" + op, random, grid);
+			Point2D q = p.getPoint2D();
+			int kind = random.nextInt(6);
+			if (kind == 0) {
+				ArrayList<TestPoint> pts = new ArrayList<TestPoint>();
+				int n = random.nextInt(2 * bucketSize + 2);
+				for (int i = 0; i < n; i++) {
+					pts.add(point("p" + op + "." + i, random, grid));
+				}
+				tree.bulkInsert(new ArrayList<TestPoint>(pts));
+				list.addAll(pts);
+			} else if (kind == 1) {
+				tree.insert(p);
+				list.add(p);
+			} else if (kind == 2 && list.size() > 0) {
+				q = list.get(random.nextInt(list.size())).getPoint2D();
+				tree.delete(q);
+				for (int i = 0; i < list.size(); i++) {
+					if (list.get(i).getPoint2D().equals(q)) {
+						list.remove(i);
+						break;
+					}
+				}
+			} else if (kind >= 3) {
+				int k = 1 + random.nextInt(kind == 5 ? list.size() + 2 : 6);
+				ArrayList<TestPoint> res = tree.kNearestNeighbor(q, k);
+				check(res.size() == Math.min(k, list.size()), "kNN size");
+				ArrayList<Double> expected = new ArrayList<Double>();
+				for (TestPoint pt : list) {
+					expected.add(q.distanceSq(pt.getPoint2D()));
+				}
+				expected.sort(null);
+				for (int i = 0; i < res.size(); i++) {
+					check(q.distanceSq(res.get(i).getPoint2D()) == expected.get(i), "kNN distance");
+					check(count(list, res.get(i).getPoint2D()) > 0, "kNN returned a deleted point");
+				}
+				TestPoint nearest = tree.nearestNeighbor(q);
+				check(nearest == null ? list.isEmpty() : q.distanceSq(nearest.getPoint2D()) == expected.get(0),
+						"nearestNeighbor");
+			}
+			check(tree.size() == list.size(), "size");
+			int total = 0;
+			for (int i = 0; i < tree.shardCount(); i++) {
+				total += tree.getShard(i).size();
+			}
+			check(total == list.size(), "shard sizes");
+			check((tree.find(q) != null) == (count(list, q) > 0), "find");
+		}
+		for (TestPoint pt : list) {
+			check(tree.find(pt.getPoint2D()) != null, "find of a contained point");
+		}
+		tree.clear();
+		check(tree.size() == 0 && tree.kNearestNeighbor(new Point2D(0, 0), 1).size() == 0, "clear");
+	}
+
+	/* Return a new point, on the grid or anywhere in the bounding box. */
+	private static TestPoint point(String label, Random random, boolean grid) {
+		if (grid) {
+			return new TestPoint(label, random.nextInt(GRID), random.nextInt(GRID));
+		}
+		return new TestPoint(label, random.nextDouble() * (GRID - 1), random.nextDouble() * (GRID - 1));
+	}
+
+	/* Return the number of points of the list equal to the given point. */
+	private static int count(ArrayList<TestPoint> list, Point2D q) {
+		int res = 0;
+		for (TestPoint pt : list) {
+			if (pt.getPoint2D().equals(q)) {
+				res++;
+			}
+		}
+		return res;
+	}
+
+	private static void check(boolean condition, String message) throws Exception {
+		if (!condition) {
+			throw new Exception(message);
+		}
+	}
+}
@@ -0,0 +1,155 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+/* Randomized test of XkdTree against a brute-force list of points. Points are drawn from a small grid, so that most
+coordinates occur many times and external nodes holding nothing but copies of one point are created, grown, shrunk and
+split again. After every insertion, deletion or query, the tree must agree with the list. Compile it together with the
+data structures (and the course-provided Point2D, Rectangle2D and LabeledPoint2D) and run:
+
+    java XkdTreeTest [seeds]
+*/
+
+public class XkdTreeTest {
+
+	private static final int GRID = 5;
+	private static final int OPS = 2000;
+
+	/* Labeled point used by the test. */
+
+	private static class TestPoint implements LabeledPoint2D {
+		private String label;
+		private Point2D point;
+
+		TestPoint(String label, double x, double y) {
+			this.label = label;
+			this.point = new Point2D(x, y);
+		}
+
+		public double getX() {
+			return this.point.getX();
+		}
+
+		public double getY() {
+			return this.point.getY();
+		}
+
+		public double get(int i) {
+			return this.point.get(i);
+		}
+
+		public Point2D getPoint2D() {
+			return this.point;
+		}
+
+		public String getLabel() {
+			return this.label;
+		}
+
+		public String toString() {
+			return this.label + ": " + this.point;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int seeds = 300;
+		if (args.length > 0) {
+			seeds = Integer.parseInt(args[0]);
+		}
+		int failures = 0;
+		for (int seed = 0; seed < seeds; seed++) {
+			try {
+				run(seed);
+			} catch (Exception e) {
+				System.out.println("seed " + seed + ": " + e.getMessage());
+				failures++;
+			}
+		}
+		System.out.println((seeds - failures) + " of " + seeds + " seeds passed");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/* Run a random sequence of operations with the given seed, throwing an exception at the first disagreement. */
+	private static void run(long seed) throws Exception {
+		Random random = new Random(seed);
+		int bucketSize = 1 + random.nextInt(4);
+		Rectangle2D bbox = new Rectangle2D(new Point2D(0, 0), new Point2D(GRID - 1, GRID - 1));
+		XkdTree<TestPoint> tree = new XkdTree<TestPoint>(bucketSize, bbox);
+		ArrayList<TestPoint> list = new ArrayList<TestPoint>();
+		for (int op = 0; op < OPS; op++) {
+			Point2D q = new Point2D(random.nextInt(GRID), random.nextInt(GRID));
+			int kind = random.nextInt(6);
+			if (kind == 0) {
+				ArrayList<TestPoint> pts = new ArrayList<TestPoint>();
+				int n = random.nextInt(2 * bucketSize + 2);
+				for (int i = 0; i < n; i++) {
+					pts.add(new TestPoint("p" + op + "." + i, q.getX(), random.nextInt(3) == 0 ? random.nextInt(GRID)
+							: q.getY()));
+				}
+				tree.bulkInsert(new ArrayList<TestPoint>(pts));
+				list.addAll(pts);
+			} else if (kind == 1) {
+				TestPoint pt = new TestPoint("p" + op, q.getX(), q.getY());
+				tree.insert(pt);
+				list.add(pt);
+			} else if (kind == 2 && list.size() > 0) {
+				TestPoint pt = list.remove(random.nextInt(list.size()));
+				tree.remove(pt);
+				check(!tree.contains(pt), "removed point still contained");
+			} else if (kind == 3) {
+				int before = count(list, q);
+				if (before == 0) {
+					check(tree.find(q) == null, "find of absent point");
+					continue;
+				}
+				tree.delete(q);
+				check(tree.count(q) == before - 1, "count after delete");
+				ArrayList<TestPoint> left = tree.findAll(q);
+				for (int i = list.size() - 1; i >= 0; i--) {
+					if (list.get(i).getPoint2D().equals(q) && !left.contains(list.get(i))) {
+						list.remove(i);
+						break;
+					}
+				}
+			} else if (kind == 4) {
+				int k = 1 + random.nextInt(6);
+				ArrayList<TestPoint> res = tree.kNearestNeighbor(q, k);
+				check(res.size() == Math.min(k, list.size()), "kNN size");
+				ArrayList<Double> expected = new ArrayList<Double>();
+				for (TestPoint pt : list) {
+					expected.add(q.distanceSq(pt.getPoint2D()));
+				}
+				expected.sort(null);
+				for (int i = 0; i < res.size(); i++) {
+					check(q.distanceSq(res.get(i).getPoint2D()) == expected.get(i), "kNN distance");
+				}
+			}
+			check(tree.size() == list.size(), "size");
+			check(tree.count(q) == count(list, q), "count");
+			check(tree.findAll(q).size() == count(list, q), "findAll");
+			check((tree.find(q) != null) == (count(list, q) > 0), "find");
+			for (TestPoint pt : list) {
+				check(tree.contains(pt), "contains");
+			}
+		}
+		check(tree.points().size() == list.size(), "points");
+	}
+
+	/* Return the number of points of the list equal to the given point. */
+	private static int count(ArrayList<TestPoint> list, Point2D q) {
+		int res = 0;
+		for (TestPoint pt : list) {
+			if (pt.getPoint2D().equals(q)) {
+				res++;
+			}
+		}
+		return res;
+	}
+
+	private static void check(boolean condition, String message) throws Exception {
+		if (!condition) {
+			throw new Exception(message);
+		}
+	}
+}